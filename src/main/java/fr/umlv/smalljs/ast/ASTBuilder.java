@@ -5,6 +5,7 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import fr.umlv.smalljs.ast.Expr.Block;
@@ -32,7 +33,19 @@ public class ASTBuilder implements GrammarEvaluator {
     this.tracker = tracker;
   }
 
+  // the front end is selected by the property "smalljs.parser",
+  // "tatoo" (the default) uses the generated lexer and parser, "handwritten" uses Parser,
+  // the script is not parsed if it is in the cache, see ASTCache
   public static Script createScript(Reader reader) {
+    Function<Reader, Script> parser = switch (System.getProperty("smalljs.parser", "tatoo")) {
+      case "tatoo" -> ASTBuilder::createTatooScript;
+      case "handwritten" -> Parser::parse;
+      default -> throw new IllegalArgumentException("unknown parser " + System.getProperty("smalljs.parser"));
+    };
+    return ASTCache.getOrParse(reader, parser);
+  }
+
+  static Script createTatooScript(Reader reader) {
     LocationTracker tracker = new LocationTracker();
     ReaderWrapper buffer = new ReaderWrapper(reader, tracker);
     ASTBuilder astBuilder = new ASTBuilder(tracker);
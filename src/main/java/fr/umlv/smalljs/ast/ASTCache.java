@@ -0,0 +1,64 @@
+package fr.umlv.smalljs.ast;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.function.Function;
+
+import fr.umlv.smalljs.rt.DiskCache;
+
+// An on-disk cache of the parsed scripts, encoded with ASTCodec,
+// enabled by setting the system property "smalljs.astcache" to a directory.
+//
+// The key is a hash of the encoding version and of the source,
+// so a script that has not changed is loaded without being parsed.
+// Both parsers create the same AST, so the parser is not part of the key.
+final class ASTCache {
+  private ASTCache() {
+    throw new AssertionError();
+  }
+
+  // returns the script from the cache or parse it and store it in the cache
+  static Script getOrParse(Reader reader, Function<? super Reader, Script> parser) {
+    var directoryName = System.getProperty("smalljs.astcache");
+    if (directoryName == null) {
+      return parser.apply(reader);
+    }
+    var writer = new StringWriter();
+    try {
+      reader.transferTo(writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    var code = writer.toString();
+    var directory = Path.of(directoryName);
+    var path = directory.resolve(hash(code) + ".ast");
+    try {
+      return ASTCodec.decode(Files.readAllBytes(path));
+    } catch (IOException | IllegalArgumentException e) {
+      // not in the cache, not readable or not a valid encoding
+    }
+    var script = parser.apply(new StringReader(code));
+    try {
+      DiskCache.store(path, ASTCodec.encode(script));
+    } catch (IllegalArgumentException e) {
+      // too deeply nested to be decoded, not cached
+    }
+    return script;
+  }
+
+  static String hash(String code) {
+    var digest = DiskCache.newDigest();
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, ASTCodec.VERSION));
+    digest.update(code.getBytes(UTF_8));
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
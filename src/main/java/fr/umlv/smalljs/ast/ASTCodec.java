@@ -0,0 +1,364 @@
+package fr.umlv.smalljs.ast;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+
+// A compact binary encoding of a Script.
+//
+// The encoding is the version, a CRC32 of the rest of the encoding, the string table (each string once)
+// then the tree of expressions, each expression is a tag, its line number and its components, the sizes,
+// the line numbers, the integers and the indexes in the string table are varints.
+// A line number is stored as the difference with the line number of the previous expression (zigzag),
+// so most of them take one byte.
+public final class ASTCodec {
+  // must be changed each time the encoding changes
+  static final int VERSION = 2;
+
+  // the encoder and the decoder are recursive, a corrupted encoding must not overflow the stack
+  // and the encoder rejects a deeper tree so any encoding can be decoded,
+  // a chain of calls (a + b + ...) overflows a default stack at about 900 once the encoder is compiled
+  static final int MAX_DEPTH = 500;
+
+  private static final int BLOCK = 0;
+  private static final int INTEGER = 1;
+  private static final int STRING = 2;
+  private static final int FUN_CALL = 3;
+  private static final int LOCAL_VAR_ACCESS = 4;
+  private static final int LOCAL_VAR_ASSIGNMENT = 5;
+  private static final int LOCAL_VAR_DECLARATION = 6;
+  private static final int FUN = 7;
+  private static final int NAMED_FUN = 8;
+  private static final int RETURN = 9;
+  private static final int IF = 10;
+  private static final int NEW = 11;
+  private static final int FIELD_ACCESS = 12;
+  private static final int FIELD_ASSIGNMENT = 13;
+  private static final int METHOD_CALL = 14;
+
+  private ASTCodec() {
+    throw new AssertionError();
+  }
+
+  private static final class Output {
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    void writeByte(int value) {
+      if (size == bytes.length) {
+        bytes = Arrays.copyOf(bytes, size << 1);
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7F) != 0) {
+        writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    void writeZigzag(int value) {
+      writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    void writeBytes(byte[] data) {
+      if (size + data.length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, size + data.length));
+      }
+      System.arraycopy(data, 0, bytes, size, data.length);
+      size += data.length;
+    }
+  }
+
+  private static final class Encoder {
+    private final Output tree = new Output();
+    private final LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+    private int lineNumber;
+    private int depth;
+
+    private void writeString(String string) {
+      tree.writeVarint(strings.computeIfAbsent(string, _ -> strings.size()));
+    }
+
+    private void writeExprs(List<Expr> exprs) {
+      tree.writeVarint(exprs.size());
+      for (var expr : exprs) {
+        write(expr);
+      }
+    }
+
+    private void writeHeader(int tag, Expr expr) {
+      tree.writeByte(tag);
+      tree.writeZigzag(expr.lineNumber() - lineNumber);
+      lineNumber = expr.lineNumber();
+    }
+
+    private void write(Expr expression) {
+      if (++depth > MAX_DEPTH) {
+        throw new IllegalArgumentException("AST nested too deeply to be encoded");
+      }
+      switch (expression) {
+        case Block(List<Expr> instrs, int _) -> {
+          writeHeader(BLOCK, expression);
+          writeExprs(instrs);
+        }
+        case Literal<?>(Object value, int _) -> {
+          switch (value) {
+            case Integer i -> {
+              writeHeader(INTEGER, expression);
+              tree.writeZigzag(i);
+            }
+            case String s -> {
+              writeHeader(STRING, expression);
+              writeString(s);
+            }
+            default -> throw new AssertionError("unknown literal " + value);
+          }
+        }
+        case FunCall(Expr qualifier, List<Expr> args, int _) -> {
+          writeHeader(FUN_CALL, expression);
+          write(qualifier);
+          writeExprs(args);
+        }
+        case LocalVarAccess(String name, int _) -> {
+          writeHeader(LOCAL_VAR_ACCESS, expression);
+          writeString(name);
+        }
+        case LocalVarAssignment(String name, Expr expr, boolean declaration, int _) -> {
+          writeHeader(declaration ? LOCAL_VAR_DECLARATION : LOCAL_VAR_ASSIGNMENT, expression);
+          writeString(name);
+          write(expr);
+        }
+        case Fun(Optional<String> optName, List<String> parameters, Block body, int _) -> {
+          writeHeader(optName.isPresent() ? NAMED_FUN : FUN, expression);
+          optName.ifPresent(this::writeString);
+          tree.writeVarint(parameters.size());
+          parameters.forEach(this::writeString);
+          write(body);
+        }
+        case Return(Expr expr, int _) -> {
+          writeHeader(RETURN, expression);
+          write(expr);
+        }
+        case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+          writeHeader(IF, expression);
+          write(condition);
+          write(trueBlock);
+          write(falseBlock);
+        }
+        case New(Map<String, Expr> initMap, int _) -> {
+          writeHeader(NEW, expression);
+          tree.writeVarint(initMap.size());
+          initMap.forEach((name, expr) -> {
+            writeString(name);
+            write(expr);
+          });
+        }
+        case FieldAccess(Expr receiver, String name, int _) -> {
+          writeHeader(FIELD_ACCESS, expression);
+          write(receiver);
+          writeString(name);
+        }
+        case FieldAssignment(Expr receiver, String name, Expr expr, int _) -> {
+          writeHeader(FIELD_ASSIGNMENT, expression);
+          write(receiver);
+          writeString(name);
+          write(expr);
+        }
+        case MethodCall(Expr receiver, String name, List<Expr> args, int _) -> {
+          writeHeader(METHOD_CALL, expression);
+          write(receiver);
+          writeString(name);
+          writeExprs(args);
+        }
+      }
+      depth--;
+    }
+  }
+
+  // throws IllegalArgumentException if the tree is nested deeper than the decoder accepts
+  public static byte[] encode(Script script) {
+    var encoder = new Encoder();
+    encoder.write(script.body());
+    var content = new Output();
+    content.writeVarint(encoder.strings.size());
+    for (var string : encoder.strings.keySet()) {
+      var data = string.getBytes(UTF_8);
+      content.writeVarint(data.length);
+      content.writeBytes(data);
+    }
+    content.writeBytes(Arrays.copyOf(encoder.tree.bytes, encoder.tree.size));
+    var checksum = new CRC32();
+    checksum.update(content.bytes, 0, content.size);
+    var output = new Output();
+    output.writeVarint(VERSION);
+    var value = (int) checksum.getValue();
+    for (var shift = 24; shift >= 0; shift -= 8) {
+      output.writeByte(value >>> shift);
+    }
+    output.writeBytes(Arrays.copyOf(content.bytes, content.size));
+    return Arrays.copyOf(output.bytes, output.size);
+  }
+
+  private static final class Decoder {
+    private final byte[] bytes;
+    private int position;
+    private String[] strings;
+    private int lineNumber;
+    private int depth;
+
+    private Decoder(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    private int readByte() {
+      if (position == bytes.length) {
+        throw new IllegalArgumentException("truncated AST encoding");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    private int readVarint() {
+      var value = 0;
+      for (var shift = 0; shift < 32; shift += 7) {
+        var b = readByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("invalid varint");
+    }
+
+    private int readZigzag() {
+      var value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private String readString() {
+      var index = readVarint();
+      if (index < 0 || index >= strings.length) {
+        throw new IllegalArgumentException("invalid string index " + index);
+      }
+      return strings[index];
+    }
+
+    private List<String> readStrings() {
+      var strings = new ArrayList<String>();
+      for (var i = readVarint(); i > 0; i--) {
+        strings.add(readString());
+      }
+      return List.copyOf(strings);
+    }
+
+    private List<Expr> readExprs() {
+      var exprs = new ArrayList<Expr>();
+      for (var i = readVarint(); i > 0; i--) {
+        exprs.add(read());
+      }
+      return List.copyOf(exprs);
+    }
+
+    private Block readBlock() {
+      if (read() instanceof Block block) {
+        return block;
+      }
+      throw new IllegalArgumentException("block expected");
+    }
+
+    private Expr read() {
+      if (++depth > MAX_DEPTH) {
+        throw new IllegalArgumentException("AST encoding nested too deeply");
+      }
+      var tag = readByte();
+      var lineNumber = this.lineNumber += readZigzag();
+      var expr = switch (tag) {
+        case BLOCK -> new Block(readExprs(), lineNumber);
+        case INTEGER -> new Literal<>(readZigzag(), lineNumber);
+        case STRING -> new Literal<>(readString(), lineNumber);
+        case FUN_CALL -> new FunCall(read(), readExprs(), lineNumber);
+        case LOCAL_VAR_ACCESS -> new LocalVarAccess(readString(), lineNumber);
+        case LOCAL_VAR_ASSIGNMENT, LOCAL_VAR_DECLARATION ->
+            new LocalVarAssignment(readString(), read(), tag == LOCAL_VAR_DECLARATION, lineNumber);
+        case FUN, NAMED_FUN -> {
+          var optName = tag == NAMED_FUN ? Optional.of(readString()) : Optional.<String>empty();
+          yield new Fun(optName, readStrings(), readBlock(), lineNumber);
+        }
+        case RETURN -> new Return(read(), lineNumber);
+        case IF -> new If(read(), readBlock(), readBlock(), lineNumber);
+        case NEW -> {
+          var initMap = new LinkedHashMap<String, Expr>();
+          for (var i = readVarint(); i > 0; i--) {
+            initMap.put(readString(), read());
+          }
+          yield new New(Collections.unmodifiableMap(initMap), lineNumber);
+        }
+        case FIELD_ACCESS -> new FieldAccess(read(), readString(), lineNumber);
+        case FIELD_ASSIGNMENT -> new FieldAssignment(read(), readString(), read(), lineNumber);
+        case METHOD_CALL -> new MethodCall(read(), readString(), readExprs(), lineNumber);
+        default -> throw new IllegalArgumentException("unknown tag " + tag);
+      };
+      depth--;
+      return expr;
+    }
+  }
+
+  // throws IllegalArgumentException if the bytes are not a valid encoding
+  public static Script decode(byte[] bytes) {
+    var decoder = new Decoder(bytes);
+    var version = decoder.readVarint();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("unknown AST encoding version " + version);
+    }
+    var value = 0;
+    for (var i = 0; i < 4; i++) {
+      value = value << 8 | decoder.readByte();
+    }
+    var checksum = new CRC32();
+    checksum.update(bytes, decoder.position, bytes.length - decoder.position);
+    if ((int) checksum.getValue() != value) {
+      throw new IllegalArgumentException("corrupted AST encoding");
+    }
+    var count = decoder.readVarint();
+    if (count < 0 || count > bytes.length) {
+      throw new IllegalArgumentException("invalid string count " + count);
+    }
+    var strings = new String[count];
+    for (var i = 0; i < strings.length; i++) {
+      var length = decoder.readVarint();
+      if (length < 0 || length > bytes.length - decoder.position) {
+        throw new IllegalArgumentException("truncated AST encoding");
+      }
+      strings[i] = new String(bytes, decoder.position, length, UTF_8);
+      decoder.position += length;
+    }
+    decoder.strings = strings;
+    var body = decoder.readBlock();
+    if (decoder.position != bytes.length) {
+      throw new IllegalArgumentException("trailing bytes in AST encoding");
+    }
+    return new Script(body);
+  }
+}
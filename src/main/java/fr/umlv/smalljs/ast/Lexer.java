@@ -0,0 +1,265 @@
+package fr.umlv.smalljs.ast;
+
+import java.nio.CharBuffer;
+
+import fr.umlv.smalljs.rt.Failure;
+
+// A lexer of the tokens of grammar/smalljs.ebnf that works directly on an array of chars.
+//
+// Like the lexer generated by tatoo, only the tokens the parser can accept at the current position
+// are recognized, so a '\n' is an end of instruction only where an instruction can end
+// and a blank elsewhere. Among the active tokens and the blanks, the longest match wins
+// and, for the same length, the token declared first in the grammar.
+final class Lexer {
+  // the tokens, in the order of the grammar
+  static final int ASSIGN = 0;
+  static final int DOT = 1;
+  static final int COLON = 2;
+  static final int COMMA = 3;
+  static final int SEMICOLON = 4;
+  static final int EOL = 5;
+  static final int LPAR = 6;
+  static final int RPAR = 7;
+  static final int LCURL = 8;
+  static final int RCURL = 9;
+  static final int ADD = 10;
+  static final int SUB = 11;
+  static final int MUL = 12;
+  static final int DIV = 13;
+  static final int REM = 14;
+  static final int EQ = 15;
+  static final int NE = 16;
+  static final int LT = 17;
+  static final int LE = 18;
+  static final int GT = 19;
+  static final int GE = 20;
+  static final int VAR = 21;
+  static final int FUNCTION = 22;
+  static final int IF = 23;
+  static final int ELSE = 24;
+  static final int RETURN = 25;
+  static final int TEXT = 26;
+  static final int INTEGER = 27;
+  static final int ID = 28;
+  static final int EOF = 29;
+
+  // the blanks are always active
+  private static final int SPACE = 30;
+  private static final int COMMENT = 31;
+  private static final int BLANKS = 1 << SPACE | 1 << COMMENT;
+
+  private static final String[] NAMES = {
+      "=", ".", ":", ",", ";", "end of line", "(", ")", "{", "}",
+      "+", "-", "*", "/", "%", "==", "!=", "<", "<=", ">", ">=",
+      "var", "function", "if", "else", "return", "text", "integer", "identifier", "end of input"
+  };
+
+  private final char[] text;
+  private final int length;
+  private final CharBuffer chars;  // to parse the integers without creating a String
+  private int position;
+  private int line;  // number of '\n' before the position
+
+  // the current token
+  int kind;
+  int start;
+  int end;
+  int lineNumber;  // like the tatoo location tracker, the line of the end of the token
+
+  private int matchKind;
+  private int matchLength;
+
+  Lexer(char[] text, int length) {
+    this.text = text;
+    this.length = length;
+    this.chars = CharBuffer.wrap(text, 0, length);
+  }
+
+  static int mask(int kind) {
+    return 1 << kind;
+  }
+
+  String value() {
+    return new String(text, start, end - start);
+  }
+
+  int intValue() {
+    return Integer.parseInt(chars, start, end, 10);
+  }
+
+  // the text without the quotes
+  String textValue() {
+    return new String(text, start + 1, end - start - 2);
+  }
+
+  Failure error(int active) {
+    var expected = new StringBuilder();
+    for (var kind = 0; kind <= EOF; kind++) {
+      if ((active & mask(kind)) != 0) {
+        expected.append(expected.isEmpty() ? "" : ", ").append(NAMES[kind]);
+      }
+    }
+    var found = position == length ? "end of input" : "\"" + text[position] + "\"";
+    return new Failure("parse error on " + found + " at line " + (1 + line) + ", expected " + expected);
+  }
+
+  // lexes the next token among the active ones (a bit set of tokens), skips the blanks and the comments
+  void next(int active) {
+    for (;;) {
+      start = position;
+      if (position == length) {
+        if ((active & mask(EOF)) == 0) {
+          throw error(active);
+        }
+        kind = EOF;
+        end = position;
+        lineNumber = 1 + line;
+        return;
+      }
+      matchKind = -1;
+      matchLength = 0;
+      match(active | BLANKS);
+      if (matchKind == -1) {
+        throw error(active);
+      }
+      position += matchLength;
+      if (matchKind == EOL || matchKind == TEXT || matchKind == SPACE || matchKind == COMMENT) {
+        for (var i = start; i < position; i++) {
+          if (text[i] == '\n') {
+            line++;
+          }
+        }
+      }
+      if (matchKind < SPACE) {
+        kind = matchKind;
+        end = position;
+        lineNumber = 1 + line;
+        return;
+      }
+    }
+  }
+
+  private void match(int active) {
+    var c = text[position];
+    switch (c) {
+      case '=' -> {
+        candidate(active, ASSIGN, 1);
+        candidate(active, EQ, charAt(position + 1) == '=' ? 2 : 0);
+      }
+      case '.' -> candidate(active, DOT, 1);
+      case ':' -> candidate(active, COLON, 1);
+      case ',' -> candidate(active, COMMA, 1);
+      case ';' -> candidate(active, SEMICOLON, 1);
+      case '\n' -> {
+        candidate(active, EOL, 1);
+        candidate(active, SPACE, 1);
+      }
+      case ' ', '\t', '\r' -> candidate(active, SPACE, 1);
+      case '(' -> candidate(active, LPAR, 1);
+      case ')' -> candidate(active, RPAR, 1);
+      case '{' -> candidate(active, LCURL, 1);
+      case '}' -> candidate(active, RCURL, 1);
+      case '+' -> candidate(active, ADD, 1);
+      case '-' -> candidate(active, SUB, 1);
+      case '*' -> candidate(active, MUL, 1);
+      case '/' -> {
+        candidate(active, DIV, 1);
+        candidate(active, COMMENT, commentLength());
+      }
+      case '%' -> candidate(active, REM, 1);
+      case '!' -> candidate(active, NE, charAt(position + 1) == '=' ? 2 : 0);
+      case '<' -> {
+        candidate(active, LT, 1);
+        candidate(active, LE, charAt(position + 1) == '=' ? 2 : 0);
+      }
+      case '>' -> {
+        candidate(active, GT, 1);
+        candidate(active, GE, charAt(position + 1) == '=' ? 2 : 0);
+      }
+      case 'v' -> candidate(active, VAR, keywordLength("var"));
+      case 'f' -> candidate(active, FUNCTION, keywordLength("function"));
+      case 'i' -> candidate(active, IF, keywordLength("if"));
+      case 'e' -> candidate(active, ELSE, keywordLength("else"));
+      case 'r' -> candidate(active, RETURN, keywordLength("return"));
+      case '\'', '"' -> candidate(active, TEXT, textLength(c));
+      default -> {}
+    }
+    if (c >= '0' && c <= '9') {
+      candidate(active, INTEGER, integerLength());
+    }
+    candidate(active, ID, idLength());
+  }
+
+  private void candidate(int active, int kind, int length) {
+    if (length != 0 && (active & mask(kind)) != 0
+        && (length > matchLength || (length == matchLength && kind < matchKind))) {
+      matchKind = kind;
+      matchLength = length;
+    }
+  }
+
+  private char charAt(int index) {
+    return index < length ? text[index] : '\0';
+  }
+
+  private int keywordLength(String keyword) {
+    var keywordLength = keyword.length();
+    if (position + keywordLength > length) {
+      return 0;
+    }
+    for (var i = 0; i < keywordLength; i++) {
+      if (text[position + i] != keyword.charAt(i)) {
+        return 0;
+      }
+    }
+    return keywordLength;
+  }
+
+  // '[^']*' or "[^"]*"
+  private int textLength(char quote) {
+    for (var i = position + 1; i < length; i++) {
+      if (text[i] == quote) {
+        return i + 1 - position;
+      }
+    }
+    return 0;
+  }
+
+  // [0-9]+
+  private int integerLength() {
+    var i = position;
+    while (i < length && text[i] >= '0' && text[i] <= '9') {
+      i++;
+    }
+    return i - position;
+  }
+
+  // [^ \t\r\n=.:,();]+
+  private int idLength() {
+    var i = position;
+    loop: while (i < length) {
+      switch (text[i]) {
+        case ' ', '\t', '\r', '\n', '=', '.', ':', ',', '(', ')', ';' -> {
+          break loop;
+        }
+        default -> i++;
+      }
+    }
+    return i - position;
+  }
+
+  // \/\/([^\r\n])*(\r)?\n
+  private int commentLength() {
+    if (charAt(position + 1) != '/') {
+      return 0;
+    }
+    var i = position + 2;
+    while (i < length && text[i] != '\r' && text[i] != '\n') {
+      i++;
+    }
+    if (i < length && text[i] == '\r') {
+      i++;
+    }
+    return i < length && text[i] == '\n' ? i + 1 - position : 0;
+  }
+}
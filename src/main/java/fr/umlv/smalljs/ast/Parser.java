@@ -0,0 +1,367 @@
+package fr.umlv.smalljs.ast;
+
+import static fr.umlv.smalljs.ast.Lexer.ADD;
+import static fr.umlv.smalljs.ast.Lexer.ASSIGN;
+import static fr.umlv.smalljs.ast.Lexer.COLON;
+import static fr.umlv.smalljs.ast.Lexer.COMMA;
+import static fr.umlv.smalljs.ast.Lexer.DIV;
+import static fr.umlv.smalljs.ast.Lexer.DOT;
+import static fr.umlv.smalljs.ast.Lexer.ELSE;
+import static fr.umlv.smalljs.ast.Lexer.EOF;
+import static fr.umlv.smalljs.ast.Lexer.EOL;
+import static fr.umlv.smalljs.ast.Lexer.EQ;
+import static fr.umlv.smalljs.ast.Lexer.FUNCTION;
+import static fr.umlv.smalljs.ast.Lexer.GE;
+import static fr.umlv.smalljs.ast.Lexer.GT;
+import static fr.umlv.smalljs.ast.Lexer.ID;
+import static fr.umlv.smalljs.ast.Lexer.IF;
+import static fr.umlv.smalljs.ast.Lexer.INTEGER;
+import static fr.umlv.smalljs.ast.Lexer.LCURL;
+import static fr.umlv.smalljs.ast.Lexer.LE;
+import static fr.umlv.smalljs.ast.Lexer.LPAR;
+import static fr.umlv.smalljs.ast.Lexer.LT;
+import static fr.umlv.smalljs.ast.Lexer.MUL;
+import static fr.umlv.smalljs.ast.Lexer.NE;
+import static fr.umlv.smalljs.ast.Lexer.RCURL;
+import static fr.umlv.smalljs.ast.Lexer.REM;
+import static fr.umlv.smalljs.ast.Lexer.RETURN;
+import static fr.umlv.smalljs.ast.Lexer.RPAR;
+import static fr.umlv.smalljs.ast.Lexer.SEMICOLON;
+import static fr.umlv.smalljs.ast.Lexer.SUB;
+import static fr.umlv.smalljs.ast.Lexer.TEXT;
+import static fr.umlv.smalljs.ast.Lexer.VAR;
+import static fr.umlv.smalljs.ast.Lexer.mask;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+
+// A recursive descent parser of grammar/smalljs.ebnf, it creates the same AST as the tatoo parser and ASTBuilder,
+// including the line numbers, without the parser tables and without a CharSequence per token.
+//
+// Each call to the lexer gets the tokens that can follow at that point of the grammar,
+// the same set as the lookahead of the LR parser, so both parsers split the text in the same tokens.
+public final class Parser {
+  private static final int EXPR_START = mask(INTEGER) | mask(TEXT) | mask(LPAR) | mask(ID) | mask(FUNCTION) | mask(LCURL);
+  private static final int INSTR_START = EXPR_START | mask(VAR) | mask(IF) | mask(RETURN);
+  private static final int EOI = mask(EOL) | mask(SEMICOLON);
+  private static final int BINARY_OPERATORS = mask(ADD) | mask(SUB) | mask(MUL) | mask(DIV) | mask(REM)
+      | mask(EQ) | mask(NE) | mask(LT) | mask(LE) | mask(GT) | mask(GE);
+  // the tokens that can follow an expression whatever the context
+  private static final int AFTER_EXPR = mask(DOT) | mask(LPAR) | BINARY_OPERATORS;
+  // the tokens that can follow an expression in any context, the LR parser uses this set after
+  // the right operand of a binary operator and after a field access because these states are shared
+  // by all the contexts, so a '\n' there is an end of instruction even inside parenthesis
+  private static final int AFTER_ANY_EXPR = AFTER_EXPR | EOI | mask(RPAR) | mask(COMMA) | mask(LCURL) | mask(RCURL);
+
+  private final Lexer lexer;
+  private boolean peeked;
+
+  private Parser(Lexer lexer) {
+    this.lexer = lexer;
+  }
+
+  public static Script parse(Reader reader) {
+    var text = new char[8192];
+    var length = 0;
+    try {
+      int read;
+      while ((read = reader.read(text, length, text.length - length)) != -1) {
+        length += read;
+        if (length == text.length) {
+          text = Arrays.copyOf(text, length << 1);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return parse(text, length);
+  }
+
+  public static Script parse(char[] text, int length) {
+    var parser = new Parser(new Lexer(text, length));
+    return new Script(new Block(List.copyOf(parser.instrs(mask(EOF))), 1));
+  }
+
+  // lexes the next token if it is not already done
+  private int peek(int active) {
+    if (!peeked) {
+      lexer.next(active);
+      peeked = true;
+    }
+    return lexer.kind;
+  }
+
+  private void consume() {
+    peeked = false;
+  }
+
+  private int next(int active) {
+    var kind = peek(active);
+    if ((active & mask(kind)) == 0) {
+      throw lexer.error(active);
+    }
+    consume();
+    return kind;
+  }
+
+  private void expect(int kind) {
+    next(mask(kind));
+  }
+
+  // the instructions until the end token (included)
+  private List<Expr> instrs(int end) {
+    var instrs = new ArrayList<Expr>();
+    while ((end & mask(peek(INSTR_START | end))) == 0) {
+      instrs.add(instr());
+    }
+    consume();
+    return instrs;
+  }
+
+  // '{' already consumed
+  private Block block() {
+    var instrs = instrs(mask(RCURL));
+    // like ASTBuilder.block(), an empty block is on the line of its '}'
+    return new Block(List.copyOf(instrs), lexer.lineNumber);
+  }
+
+  private Expr instr() {
+    switch (lexer.kind) {
+      case VAR -> {
+        consume();
+        expect(ID);
+        var name = lexer.value();
+        var lineNumber = lexer.lineNumber;
+        expect(ASSIGN);
+        var expr = expression(EOI);
+        next(EOI);
+        return new LocalVarAssignment(name, expr, true, lineNumber);
+      }
+      case IF -> {
+        consume();
+        var condition = expression(mask(LCURL));
+        expect(LCURL);
+        var trueBlock = block();
+        expect(ELSE);
+        expect(LCURL);
+        var falseBlock = block();
+        return new If(condition, trueBlock, falseBlock, condition.lineNumber());
+      }
+      case RETURN -> {
+        consume();
+        var expr = expression(EOI);
+        next(EOI);
+        return new Return(expr, expr.lineNumber());
+      }
+      default -> {
+        Expr left;
+        if (lexer.kind == ID) {
+          consume();
+          var name = lexer.value();
+          var lineNumber = lexer.lineNumber;
+          if (peek(mask(ASSIGN) | AFTER_EXPR | EOI) == ASSIGN) {
+            consume();
+            var expr = expression(EOI);
+            next(EOI);
+            return new LocalVarAssignment(name, expr, false, lineNumber);
+          }
+          left = postfix(new LocalVarAccess(name, lineNumber), AFTER_EXPR | EOI, true);
+        } else {
+          left = postfix(primary(), AFTER_EXPR | EOI, true);
+        }
+        // postfix() stops on a '=' only after a field access
+        if (lexer.kind == ASSIGN) {
+          consume();
+          var fieldAccess = (FieldAccess) left;
+          var expr = expression(EOI);
+          next(EOI);
+          return new FieldAssignment(fieldAccess.receiver(), fieldAccess.name(), expr, fieldAccess.receiver().lineNumber());
+        }
+        var expr = binary(left, 1);
+        next(EOI);
+        return expr;
+      }
+    }
+  }
+
+  // follow is the set of tokens that can follow the expression
+  private Expr expression(int follow) {
+    return binary(postfix(primary(), AFTER_EXPR | follow, false), 1);
+  }
+
+  private static int precedence(int kind) {
+    return switch (kind) {
+      case MUL, DIV, REM -> 3;
+      case ADD, SUB -> 2;
+      case EQ, NE, LT, LE, GT, GE -> 1;
+      default -> 0;
+    };
+  }
+
+  private static String operatorName(int kind) {
+    return switch (kind) {
+      case ADD -> "+";
+      case SUB -> "-";
+      case MUL -> "*";
+      case DIV -> "/";
+      case REM -> "%";
+      case EQ -> "==";
+      case NE -> "!=";
+      case LT -> "<";
+      case LE -> "<=";
+      case GT -> ">";
+      case GE -> "!>=";  // the same name as ASTBuilder.expr_ge()
+      default -> throw new AssertionError();
+    };
+  }
+
+  // all the binary operators are left associative,
+  // the token after the left operand is already lexed
+  private Expr binary(Expr left, int minPrecedence) {
+    for (;;) {
+      var operator = lexer.kind;
+      var precedence = precedence(operator);
+      if (precedence < minPrecedence) {
+        return left;
+      }
+      consume();
+      var right = postfix(primary(), AFTER_ANY_EXPR, false);
+      while (precedence(lexer.kind) > precedence) {
+        right = binary(right, precedence + 1);
+      }
+      var lineNumber = left.lineNumber();
+      left = new FunCall(new LocalVarAccess(operatorName(operator), lineNumber), List.of(left, right), lineNumber);
+    }
+  }
+
+  // the calls, the field accesses and the method calls, active is the set of tokens that can follow them,
+  // if assignable, a field access can be followed by '=' because it starts an instruction
+  private Expr postfix(Expr expr, int active, boolean assignable) {
+    for (;;) {
+      switch (peek(active)) {
+        case LPAR -> {
+          consume();
+          expr = new FunCall(expr, args(), expr.lineNumber());
+        }
+        case DOT -> {
+          consume();
+          expect(ID);
+          var name = lexer.value();
+          if (peek(assignable ? active | mask(ASSIGN) : AFTER_ANY_EXPR) == LPAR) {
+            consume();
+            expr = new MethodCall(expr, name, args(), expr.lineNumber());
+          } else {
+            expr = new FieldAccess(expr, name, expr.lineNumber());
+          }
+        }
+        default -> {
+          return expr;
+        }
+      }
+    }
+  }
+
+  // '(' already consumed
+  private List<Expr> args() {
+    if (peek(EXPR_START | mask(RPAR)) == RPAR) {
+      consume();
+      return List.of();
+    }
+    var args = new ArrayList<Expr>();
+    do {
+      args.add(expression(mask(COMMA) | mask(RPAR)));
+    } while (next(mask(COMMA) | mask(RPAR)) == COMMA);
+    return List.copyOf(args);
+  }
+
+  private Expr primary() {
+    var kind = next(EXPR_START);
+    return switch (kind) {
+      case INTEGER -> new Literal<>(lexer.intValue(), lexer.lineNumber);
+      case TEXT -> new Literal<>(lexer.textValue(), lexer.lineNumber);
+      case ID -> new LocalVarAccess(lexer.value(), lexer.lineNumber);
+      case LPAR -> {
+        var expr = expression(mask(RPAR));
+        expect(RPAR);
+        yield expr;
+      }
+      case FUNCTION -> function();
+      case LCURL -> object();
+      default -> throw new AssertionError();
+    };
+  }
+
+  // 'function' already consumed
+  private Fun function() {
+    String name = null;
+    var lineNumber = 0;
+    if (peek(mask(ID) | mask(LPAR)) == ID) {
+      consume();
+      name = lexer.value();
+      lineNumber = lexer.lineNumber;
+    }
+    expect(LPAR);
+    var parameters = new ArrayList<String>();
+    if (peek(mask(ID) | mask(RPAR)) == ID) {
+      do {
+        expect(ID);
+        if (lineNumber == 0) {
+          lineNumber = lexer.lineNumber;
+        }
+        parameters.add(lexer.value());
+      } while (next(mask(COMMA) | mask(RPAR)) == COMMA);
+    } else {
+      consume();
+    }
+    expect(LCURL);
+    var body = block();
+    // like ASTBuilder.expr_function_creation(), the line of the name, of the first parameter or of the body
+    return new Fun(Optional.ofNullable(name), List.copyOf(parameters), body, lineNumber == 0 ? body.lineNumber() : lineNumber);
+  }
+
+  // '{' already consumed
+  private New object() {
+    var initMap = new LinkedHashMap<String, Expr>();
+    var lineNumber = 0;
+    if (peek(mask(ID) | mask(RCURL)) == ID) {
+      do {
+        expect(ID);
+        var name = lexer.value();
+        if (lineNumber == 0) {
+          lineNumber = lexer.lineNumber;
+        }
+        expect(COLON);
+        var expr = expression(mask(EOL) | mask(COMMA) | mask(RCURL));
+        // like Collectors.toMap() in ASTBuilder.expr_new(), a field initialized twice is removed
+        initMap.merge(name, expr, (_1, _2) -> null);
+        if (peek(mask(EOL) | mask(COMMA) | mask(RCURL)) == EOL) {
+          consume();
+        }
+      } while (next(mask(COMMA) | mask(RCURL)) == COMMA);
+    } else {
+      consume();
+      lineNumber = lexer.lineNumber;
+    }
+    return new New(Collections.unmodifiableMap(initMap), lineNumber);
+  }
+}
@@ -14,18 +14,24 @@ import fr.umlv.smalljs.ast.Expr.MethodCall;
 import fr.umlv.smalljs.ast.Expr.New;
 import fr.umlv.smalljs.ast.Expr.Return;
 import fr.umlv.smalljs.ast.Script;
+import fr.umlv.smalljs.ir.FrameFunction;
+import fr.umlv.smalljs.ir.PassManager;
+import fr.umlv.smalljs.ir.Purity;
+import fr.umlv.smalljs.ir.Resolver;
+import fr.umlv.smalljs.rt.ArrayMap;
+import fr.umlv.smalljs.rt.Builtins;
 import fr.umlv.smalljs.rt.Failure;
 import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
 
 import java.io.PrintStream;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+import static fr.umlv.smalljs.ir.FrameFunction.RETURN;
 import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
-import static java.util.stream.Collectors.joining;
 
 public final class ASTInterpreter {
   private static JSObject asJSObject(Object value, int lineNumber) {
@@ -35,13 +41,23 @@ public final class ASTInterpreter {
     return jsObject;
   }
 
-  static Object visit(Expr expression, JSObject env) {
+  // the resolved variables of the script and the global env
+  // the functions in memoized are pure, they get a memo cache
+  record Context(Resolver resolver, JSObject globalEnv, Set<Fun> memoized) {
+    MemoCache memo(Fun fun) {
+      return memoized.contains(fun) ? new MemoCache() : null;
+    }
+  }
+
+  static Object visit(Expr expression, Object[] frame, Context context) {
     return switch (expression) {
       case Block(List<Expr> instrs, int lineNumber) -> {
 				//throw new UnsupportedOperationException("TODO Block");
         // TODO loop over all instructions
         for (var expr: instrs) {
-          visit(expr, env);
+          if (visit(expr, frame, context) == RETURN) {
+            yield RETURN;
+          }
         }
         yield UNDEFINED;
       }
@@ -49,81 +65,74 @@ public final class ASTInterpreter {
         yield value;
       }
       case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
-        var value = visit(qualifier, env);
+        var value = visit(qualifier, frame, context);
         if(!(value instanceof JSObject jsObject)) {
           throw new Failure("Not a function at line " + lineNumber);
         }
-        var values = args.stream().map(expr -> visit(expr, env)).toArray();
-        yield jsObject.invoke(UNDEFINED,values);
+        yield FrameFunction.invoke(jsObject, UNDEFINED, args.size(), i -> visit(args.get(i), frame, context));
       }
       case LocalVarAccess(String name, int lineNumber) -> {
-        yield env.lookup(name);
+        yield Resolver.load(context.resolver.binding(expression), frame, context.globalEnv);
       }
       case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
-        if(declaration && env.lookup(name) != UNDEFINED) {
+        var binding = context.resolver.binding(expression);
+        if(declaration && Resolver.load(binding, frame, context.globalEnv) != UNDEFINED) {
           throw new Failure("variable \"" + name + "\" is already defined at line " + lineNumber);
         }
-        var value = visit(expr, env);
-        env.register(name, value);
+        var value = visit(expr, frame, context);
+        Resolver.store(binding, frame, context.globalEnv, value);
         yield value;
       }
       case Fun(Optional<String> optName, List<String> parameters, Block body, int lineNumber) -> {
 				//throw new UnsupportedOperationException("TODO Fun");
         var functionName = optName.orElse("lambda");
-        var invoker = new JSObject.Invoker() {
+        // one frame per call, the slots of the local variables stay null until assigned
+        var invoker = new FrameFunction(frame, context.resolver.funInfo((Fun) expression), context.memo((Fun) expression)) {
           @Override
-          public Object invoke(Object receiver, Object... args) {
-            if(args.length != parameters.size()) {
-              throw new Failure("wrong number of arguments");
-            }
-            var localEnv = JSObject.newEnv(env);
-            localEnv.register("this", receiver);
-            for(var i = 0; i < parameters.size(); i++) {
-              localEnv.register(parameters.get(i), args[i]);
-            }
-            
-            try {
-              return visit(body, localEnv);
-            } catch (ReturnError re) {
-              return re.getValue();
-            }
+          protected Object execute(Object[] localFrame) {
+            return visit(body, localFrame, context);
           }
         };
         var function = JSObject.newFunction(functionName, invoker);
-        optName.ifPresent(name -> env.register(name, function));
+        if (optName.isPresent()) {
+          Resolver.store(context.resolver.binding(expression), frame, context.globalEnv, function);
+        }
         yield function;
       }
       case Return(Expr expr, int lineNumber) -> {
-        throw new ReturnError(visit(expr, env));
+        var value = visit(expr, frame, context);
+        // a return at top level ends the script
+        if (frame != null) {
+          frame[frame.length - 1] = value;
+        }
+        yield RETURN;
       }
       case If(Expr condition, Block trueBlock, Block falseBlock, int lineNumber) -> {
-        var value = visit(condition, env);
+        var value = visit(condition, frame, context);
         if(value instanceof Integer v && v == 1) {
-          visit(trueBlock, env);
-        } else {
-          visit(falseBlock, env);
+          yield visit(trueBlock, frame, context);
         }
-        yield UNDEFINED;
+        yield visit(falseBlock, frame, context);
       }
       case New(Map<String, Expr> initMap, int lineNumber) -> {
-        var object = JSObject.newObject(null);
-        initMap.forEach(object::register);
-        for(var entry: initMap.entrySet()) {
-          var value = visit(entry.getValue(), env);
-          object.register(entry.getKey(), value);
+        // the layout is found by following the transitions, so it is shared by all the objects of the literal
+        var values = new Object[initMap.size()];
+        var i = 0;
+        for(var init: initMap.values()) {
+          values[i++] = visit(init, frame, context);
         }
-        yield object;
+        yield JSObject.newObject(null, ArrayMap.layout(initMap.keySet()), values);
       }
       case FieldAccess(Expr receiver, String name, int lineNumber) -> {
-        var value = visit(receiver, env);
+        var value = visit(receiver, frame, context);
         if(!(value instanceof JSObject jsObject)) {
           throw new Failure("Not an field at line " + lineNumber);
         }
         yield jsObject.lookup(name);
       }
       case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
-        var value = visit(expr, env);
-        var field = visit(receiver, env);
+        var value = visit(expr, frame, context);
+        var field = visit(receiver, frame, context);
         if(!(field instanceof JSObject jsObject)) {
           throw new Failure("Not an field at line " + lineNumber);
         }
@@ -131,7 +140,7 @@ public final class ASTInterpreter {
         yield value;
       }
       case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
-        var object = visit(receiver, env);
+        var object = visit(receiver, frame, context);
         if (!(object instanceof JSObject jsObject)) {
           throw new Failure("Not an object at line " + lineNumber);
         }
@@ -139,40 +148,28 @@ public final class ASTInterpreter {
         if (!(method instanceof JSObject func)) {
           throw new Failure("Method " + name + " is not a function at line " + lineNumber);
         }
-        var reifiedArgs = args.stream()
-                             .map(arg -> visit(arg, env))
-                             .toArray();
-        yield func.invoke(jsObject, reifiedArgs);
+        yield FrameFunction.invoke(func, jsObject, args.size(), i -> visit(args.get(i), frame, context));
       }
     };
   }
 
-  @SuppressWarnings("unchecked")
-  private static JSObject createGlobalEnv(PrintStream outStream) {
-    JSObject globalEnv = JSObject.newEnv(null);
-    globalEnv.register("global", globalEnv);
-    globalEnv.register("print", JSObject.newFunction("print", (_, args) -> {
-      System.err.println("print called with " + Arrays.toString(args));
-      outStream.println(Arrays.stream(args).map(Object::toString).collect(Collectors.joining(" ")));
-      return UNDEFINED;
-    }));
-    globalEnv.register("+", JSObject.newFunction("+", (_, args) -> (Integer) args[0] + (Integer) args[1]));
-    globalEnv.register("-", JSObject.newFunction("-", (_, args) -> (Integer) args[0] - (Integer) args[1]));
-    globalEnv.register("/", JSObject.newFunction("/", (_, args) -> (Integer) args[0] / (Integer) args[1]));
-    globalEnv.register("*", JSObject.newFunction("*", (_, args) -> (Integer) args[0] * (Integer) args[1]));
-    globalEnv.register("%", JSObject.newFunction("%", (_, args) -> (Integer) args[0] % (Integer) args[1]));
-    globalEnv.register("==", JSObject.newFunction("==", (_, args) -> args[0].equals(args[1]) ? 1 : 0));
-    globalEnv.register("!=", JSObject.newFunction("!=", (_, args) -> !args[0].equals(args[1]) ? 1 : 0));
-    globalEnv.register("<", JSObject.newFunction("<", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) < 0) ? 1 : 0));
-    globalEnv.register("<=", JSObject.newFunction("<=", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) <= 0) ? 1 : 0));
-    globalEnv.register(">", JSObject.newFunction(">", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) > 0) ? 1 : 0));
-    globalEnv.register(">=", JSObject.newFunction(">=", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) >= 0) ? 1 : 0));
-    return globalEnv;
+  // the evaluation mode is set by the system property "smalljs.ast.mode",
+  // "nodes" (the default) compiles the script to a tree of self-specializing nodes,
+  // "switch" walks the AST records directly,
+  // "trampoline" walks the AST records with a stack allocated on the heap instead of the Java stack
+  public static void interpret(Script script, PrintStream outStream) {
+    interpret(script, outStream, System.getProperty("smalljs.ast.mode", "nodes"));
   }
 
-  public static void interpret(Script script, PrintStream outStream) {
-    JSObject globalEnv = createGlobalEnv(outStream);
-    Block body = script.body();
-    visit(body, globalEnv);
+  static void interpret(Script script, PrintStream outStream, String mode) {
+    JSObject globalEnv = Builtins.createGlobalEnv(outStream);
+    Block body = PassManager.lower(script);
+    var context = new Context(Resolver.resolve(body), globalEnv, Purity.memoizedFunctions(body));
+    switch (mode) {
+      case "nodes" -> NodeCompiler.compile(body, context).execute(null);
+      case "switch" -> visit(body, null, context);
+      case "trampoline" -> new Trampoline(context).run(body, null);
+      default -> throw new IllegalArgumentException("unknown mode " + mode);
+    }
   }
 }
\ No newline at end of file
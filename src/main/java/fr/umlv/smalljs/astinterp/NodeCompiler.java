@@ -0,0 +1,736 @@
+package fr.umlv.smalljs.astinterp;
+
+import static fr.umlv.smalljs.ir.FrameFunction.RETURN;
+import static fr.umlv.smalljs.rt.Builtins.INT_OPERATORS;
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.astinterp.ASTInterpreter.Context;
+import fr.umlv.smalljs.ir.FrameFunction;
+import fr.umlv.smalljs.ir.Resolver;
+import fr.umlv.smalljs.ir.Resolver.Binding;
+import fr.umlv.smalljs.ir.Resolver.FunInfo;
+import fr.umlv.smalljs.rt.ArrayMap;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
+
+// Compiles the AST of a script once into a tree of executable nodes.
+//
+// Some nodes specialize themselves on the values they see at runtime,
+// an operator call on integers, a field access on objects of the same layout
+// and a call to the same script function.
+// A node specializes by replacing itself in the tree with a node of another class (see Node.replace()),
+// so a specialized node only checks its guard. When a guard fails, the node replaces itself
+// with its generic version which never specializes again.
+final class NodeCompiler {
+  abstract static class Node {
+    Node parent;  // null for the root
+    private Node replacement;  // the node that replaced this node, null while this node is in the tree
+
+    // the frame is null for the top level code
+    abstract Object execute(Object[] frame);
+
+    final <N extends Node> N adopt(N child) {
+      child.parent = this;
+      return child;
+    }
+
+    final Node[] adoptAll(Node[] children) {
+      for (var child : children) {
+        child.parent = this;
+      }
+      return children;
+    }
+
+    // replaces this node in its parent and returns the new node to finish the current execution,
+    // the new node created by the factory adopts the children of this node.
+    // A node already replaced by a recursive execution of itself is not in the tree anymore,
+    // the node that is now in the tree is returned and no node is created,
+    // N must be a type shared by all the replacements of this node
+    @SuppressWarnings("unchecked")
+    final <N extends Node> N replace(Supplier<? extends N> factory) {
+      if (replacement != null) {
+        var node = replacement;
+        while (node.replacement != null) {
+          node = node.replacement;
+        }
+        return (N) node;
+      }
+      var node = factory.get();
+      if (!parent.replaceChild(this, node)) {
+        throw new AssertionError("not a child " + this);
+      }
+      node.parent = parent;
+      replacement = node;
+      return node;
+    }
+
+    // only the nodes with a child that can specialize replace their children
+    boolean replaceChild(Node child, Node node) {
+      throw new AssertionError("no child can be replaced in " + this);
+    }
+
+    static boolean replaceIn(Node[] children, Node child, Node node) {
+      for (var i = 0; i < children.length; i++) {
+        if (children[i] == child) {
+          children[i] = node;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final Resolver resolver;
+  private final JSObject globalEnv;
+  private final Set<Fun> memoized;
+
+  private NodeCompiler(Resolver resolver, JSObject globalEnv, Set<Fun> memoized) {
+    this.resolver = resolver;
+    this.globalEnv = globalEnv;
+    this.memoized = memoized;
+  }
+
+  static Node compile(Block body, Context context) {
+    return new NodeCompiler(context.resolver(), context.globalEnv(), context.memoized()).compile(body);
+  }
+
+  private Node[] compileAll(List<? extends Expr> exprs) {
+    return exprs.stream().map(this::compile).toArray(Node[]::new);
+  }
+
+  private Node compile(Expr expression) {
+    return switch (expression) {
+      case Block(List<Expr> instrs, int _) -> new BlockNode(compileAll(instrs));
+      case Literal<?>(Object value, int _) -> new LiteralNode(value);
+      case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
+        var qualifierNode = compile(qualifier);
+        var argNodes = compileAll(args);
+        // the builtin operators are known before the script runs but can be redefined
+        if (qualifier instanceof LocalVarAccess(String name, int _) && INT_OPERATORS.containsKey(name) && args.size() == 2) {
+          yield new OperatorNode(INT_OPERATORS.get(name), globalEnv.lookup(name), qualifierNode, argNodes[0], argNodes[1], lineNumber);
+        }
+        yield new CallNode(qualifierNode, argNodes, lineNumber);
+      }
+      case LocalVarAccess _ -> switch (resolver.binding(expression)) {
+        case Binding.Global(String name) -> new GlobalLoadNode(globalEnv, name);
+        case Binding.Local(int depth, int slot, Binding outer) -> new LocalLoadNode(globalEnv, depth, slot, outer);
+      };
+      case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) ->
+          new StoreNode(globalEnv, resolver.binding(expression), name, declaration, compile(expr), lineNumber);
+      case Fun(Optional<String> optName, List<String> _, Block body, int _) -> {
+        var nameBinding = optName.isPresent() ? resolver.binding(expression) : null;
+        var fun = (Fun) expression;
+        yield new FunNode(globalEnv, optName.orElse("lambda"), nameBinding, resolver.funInfo(fun), memoized.contains(fun), compile(body));
+      }
+      case Return(Expr expr, int _) -> new ReturnNode(compile(expr));
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) ->
+          new IfNode(compile(condition), compile(trueBlock), compile(falseBlock));
+      case New(Map<String, Expr> initMap, int _) ->
+          new NewNode(ArrayMap.layout(initMap.keySet()), compileAll(List.copyOf(initMap.values())));
+      case FieldAccess(Expr receiver, String name, int lineNumber) -> new FieldReadNode(compile(receiver), name, lineNumber);
+      case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) ->
+          new FieldWriteNode(compile(receiver), name, compile(expr), lineNumber);
+      case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) ->
+          new MethodCallNode(compile(receiver), name, compileAll(args), lineNumber);
+    };
+  }
+
+  private static final class BlockNode extends Node {
+    private final Node[] instrs;
+
+    private BlockNode(Node[] instrs) {
+      this.instrs = adoptAll(instrs);
+    }
+
+    @Override
+    boolean replaceChild(Node child, Node node) {
+      return replaceIn(instrs, child, node);
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      for (var instr : instrs) {
+        if (instr.execute(frame) == RETURN) {
+          return RETURN;
+        }
+      }
+      return UNDEFINED;
+    }
+  }
+
+  private static final class LiteralNode extends Node {
+    private final Object value;
+
+    private LiteralNode(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      return value;
+    }
+  }
+
+  private static final class GlobalLoadNode extends Node {
+    private final JSObject globalEnv;
+    private final String name;
+
+    private GlobalLoadNode(JSObject globalEnv, String name) {
+      this.globalEnv = globalEnv;
+      this.name = name;
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      return globalEnv.lookup(name);
+    }
+  }
+
+  private static final class LocalLoadNode extends Node {
+    private final JSObject globalEnv;
+    private final int depth;
+    private final int slot;
+    private final Binding outer;
+
+    private LocalLoadNode(JSObject globalEnv, int depth, int slot, Binding outer) {
+      this.globalEnv = globalEnv;
+      this.depth = depth;
+      this.slot = slot;
+      this.outer = outer;
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      var value = Resolver.frameAt(frame, depth)[slot];
+      if (value != null) {
+        return value;
+      }
+      // not assigned yet
+      return Resolver.load(outer, frame, globalEnv);
+    }
+  }
+
+  private static final class StoreNode extends Node {
+    private final JSObject globalEnv;
+    private final Binding binding;
+    private final String name;
+    private final boolean declaration;
+    private Node value;
+    private final int lineNumber;
+
+    private StoreNode(JSObject globalEnv, Binding binding, String name, boolean declaration, Node value, int lineNumber) {
+      this.globalEnv = globalEnv;
+      this.binding = binding;
+      this.name = name;
+      this.declaration = declaration;
+      this.value = adopt(value);
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    boolean replaceChild(Node child, Node node) {
+      if (child != value) {
+        return false;
+      }
+      value = node;
+      return true;
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      if (declaration && Resolver.load(binding, frame, globalEnv) != UNDEFINED) {
+        throw new Failure("variable \"" + name + "\" is already defined at line " + lineNumber);
+      }
+      var result = value.execute(frame);
+      Resolver.store(binding, frame, globalEnv, result);
+      return result;
+    }
+  }
+
+  // the invoker of the functions created by a FunNode, a direct call bypasses it
+  private static final class NodeFunction extends FrameFunction {
+    private final Node body;
+
+    private NodeFunction(Object[] enclosingFrame, FunInfo funInfo, MemoCache memo, Node body) {
+      super(enclosingFrame, funInfo, memo);
+      this.body = body;
+    }
+
+    @Override
+    protected Object execute(Object[] frame) {
+      return body.execute(frame);
+    }
+  }
+
+  private static final class FunNode extends Node {
+    private final JSObject globalEnv;
+    private final String name;
+    private final Binding nameBinding;  // null for a lambda
+    private final FunInfo funInfo;
+    private final boolean memoized;
+    private final Node body;
+
+    private FunNode(JSObject globalEnv, String name, Binding nameBinding, FunInfo funInfo, boolean memoized, Node body) {
+      this.globalEnv = globalEnv;
+      this.name = name;
+      this.nameBinding = nameBinding;
+      this.funInfo = funInfo;
+      this.memoized = memoized;
+      this.body = adopt(body);
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      // the body is compiled once and shared by all the functions created by this node
+      var memo = memoized ? new MemoCache() : null;
+      var function = JSObject.newFunction(name, new NodeFunction(frame, funInfo, memo, body));
+      if (nameBinding != null) {
+        Resolver.store(nameBinding, frame, globalEnv, function);
+      }
+      return function;
+    }
+  }
+
+  private static final class ReturnNode extends Node {
+    private Node value;
+
+    private ReturnNode(Node value) {
+      this.value = adopt(value);
+    }
+
+    @Override
+    boolean replaceChild(Node child, Node node) {
+      if (child != value) {
+        return false;
+      }
+      value = node;
+      return true;
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      var result = value.execute(frame);
+      // a return at top level ends the script
+      if (frame != null) {
+        frame[frame.length - 1] = result;
+      }
+      return RETURN;
+    }
+  }
+
+  private static final class IfNode extends Node {
+    private Node condition;
+    private final Node trueBlock;
+    private final Node falseBlock;
+
+    private IfNode(Node condition, Node trueBlock, Node falseBlock) {
+      this.condition = adopt(condition);
+      this.trueBlock = adopt(trueBlock);
+      this.falseBlock = adopt(falseBlock);
+    }
+
+    // the blocks are BlockNodes, they never specialize
+    @Override
+    boolean replaceChild(Node child, Node node) {
+      if (child != condition) {
+        return false;
+      }
+      condition = node;
+      return true;
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      if (condition.execute(frame) instanceof Integer value && value == 1) {
+        return trueBlock.execute(frame);
+      }
+      return falseBlock.execute(frame);
+    }
+  }
+
+  private static final class NewNode extends Node {
+    private final ArrayMap.Layout layout;
+    private final Node[] values;
+
+    private NewNode(ArrayMap.Layout layout, Node[] values) {
+      this.layout = layout;
+      this.values = adoptAll(values);
+    }
+
+    @Override
+    boolean replaceChild(Node child, Node node) {
+      return replaceIn(values, child, node);
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      var array = new Object[values.length];
+      for (var i = 0; i < array.length; i++) {
+        array[i] = values[i].execute(frame);
+      }
+      return JSObject.newObject(null, layout, array);
+    }
+  }
+
+  private static JSObject asFunction(Object value, int lineNumber) {
+    if (!(value instanceof JSObject jsObject)) {
+      throw new Failure("Not a function at line " + lineNumber);
+    }
+    return jsObject;
+  }
+
+  // a call to a builtin operator on two integers,
+  // replaced by a generic call if the operator is redefined or an operand is not an integer
+  private static final class OperatorNode extends Node {
+    private final IntBinaryOperator operator;
+    private final Object builtin;
+    private Node qualifier;
+    private Node left;
+    private Node right;
+    private final int lineNumber;
+
+    private OperatorNode(IntBinaryOperator operator, Object builtin, Node qualifier, Node left, Node right, int lineNumber) {
+      this.operator = operator;
+      this.builtin = builtin;
+      this.qualifier = adopt(qualifier);
+      this.left = adopt(left);
+      this.right = adopt(right);
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    boolean replaceChild(Node child, Node node) {
+      if (child == qualifier) {
+        qualifier = node;
+      } else if (child == left) {
+        left = node;
+      } else if (child == right) {
+        right = node;
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      var function = qualifier.execute(frame);
+      var a = left.execute(frame);
+      var b = right.execute(frame);
+      if (function == builtin && a instanceof Integer i && b instanceof Integer j) {
+        return operator.applyAsInt(i, j);
+      }
+      // deoptimize, the operands are already evaluated
+      replace(() -> new GenericCallNode(qualifier, new Node[] { left, right }, lineNumber));
+      return asFunction(function, lineNumber).invoke2(UNDEFINED, a, b);
+    }
+  }
+
+  // a call, the arguments are evaluated by call() once the callee is known
+  private abstract static class AbstractCallNode extends Node {
+    Node qualifier;
+    final Node[] args;
+    final int lineNumber;
+
+    AbstractCallNode(Node qualifier, Node[] args, int lineNumber) {
+      this.qualifier = adopt(qualifier);
+      this.args = adoptAll(args);
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    final boolean replaceChild(Node child, Node node) {
+      if (child == qualifier) {
+        qualifier = node;
+        return true;
+      }
+      return replaceIn(args, child, node);
+    }
+
+    abstract Object call(JSObject callee, Object[] frame);
+
+    @Override
+    final Object execute(Object[] frame) {
+      return call(asFunction(qualifier.execute(frame), lineNumber), frame);
+    }
+  }
+
+  // a call not executed yet, specialized to a direct call if the callee is a script function
+  private static final class CallNode extends AbstractCallNode {
+    private CallNode(Node qualifier, Node[] args, int lineNumber) {
+      super(qualifier, args, lineNumber);
+    }
+
+    @Override
+    Object call(JSObject callee, Object[] frame) {
+      if (callee.getInvoker() instanceof NodeFunction function && function.arity() == args.length) {
+        AbstractCallNode node = replace(() -> new DirectCallNode(qualifier, args, lineNumber, callee, function));
+        return node.call(callee, frame);
+      }
+      AbstractCallNode node = replace(() -> new GenericCallNode(qualifier, args, lineNumber));
+      return node.call(callee, frame);
+    }
+  }
+
+  // a call to always the same script function, the arguments are evaluated directly into the frame of the callee
+  private static final class DirectCallNode extends AbstractCallNode {
+    private final JSObject cachedCallee;
+    private final NodeFunction cachedFunction;
+
+    private DirectCallNode(Node qualifier, Node[] args, int lineNumber, JSObject cachedCallee, NodeFunction cachedFunction) {
+      super(qualifier, args, lineNumber);
+      this.cachedCallee = cachedCallee;
+      this.cachedFunction = cachedFunction;
+    }
+
+    @Override
+    Object call(JSObject callee, Object[] frame) {
+      if (callee == cachedCallee) {
+        return cachedFunction.call(cachedFunction.newFrame(UNDEFINED, args.length, i -> args[i].execute(frame)));
+      }
+      // deoptimize
+      AbstractCallNode node = replace(() -> new GenericCallNode(qualifier, args, lineNumber));
+      return node.call(callee, frame);
+    }
+  }
+
+  private static final class GenericCallNode extends AbstractCallNode {
+    private GenericCallNode(Node qualifier, Node[] args, int lineNumber) {
+      super(qualifier, args, lineNumber);
+    }
+
+    @Override
+    Object call(JSObject callee, Object[] frame) {
+      return FrameFunction.invoke(callee, UNDEFINED, args.length, i -> args[i].execute(frame));
+    }
+  }
+
+  private static JSObject asJSObject(Object value, int lineNumber) {
+    if (!(value instanceof JSObject jsObject)) {
+      throw new Failure("Not an field at line " + lineNumber);
+    }
+    return jsObject;
+  }
+
+  // a field read, read() is called with the evaluated receiver
+  private abstract static class AbstractFieldReadNode extends Node {
+    Node receiver;
+    final String name;
+    final int lineNumber;
+
+    AbstractFieldReadNode(Node receiver, String name, int lineNumber) {
+      this.receiver = adopt(receiver);
+      this.name = name;
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    final boolean replaceChild(Node child, Node node) {
+      if (child != receiver) {
+        return false;
+      }
+      receiver = node;
+      return true;
+    }
+
+    abstract Object read(JSObject jsObject);
+
+    @Override
+    final Object execute(Object[] frame) {
+      return read(asJSObject(receiver.execute(frame), lineNumber));
+    }
+  }
+
+  // a field read not executed yet, specialized on the layout of the receiver
+  private static final class FieldReadNode extends AbstractFieldReadNode {
+    private FieldReadNode(Node receiver, String name, int lineNumber) {
+      super(receiver, name, lineNumber);
+    }
+
+    @Override
+    Object read(JSObject jsObject) {
+      var layout = jsObject.getLayout();
+      var slot = layout.slot(name);
+      if (slot != -1 && !jsObject.isDictionary()) {
+        AbstractFieldReadNode node = replace(() -> new CachedFieldReadNode(receiver, name, lineNumber, layout, slot));
+        return node.read(jsObject);
+      }
+      AbstractFieldReadNode node = replace(() -> new GenericFieldReadNode(receiver, name, lineNumber));
+      return node.read(jsObject);
+    }
+  }
+
+  private static final class CachedFieldReadNode extends AbstractFieldReadNode {
+    private final ArrayMap.Layout cachedLayout;
+    private final int cachedSlot;
+
+    private CachedFieldReadNode(Node receiver, String name, int lineNumber, ArrayMap.Layout cachedLayout, int cachedSlot) {
+      super(receiver, name, lineNumber);
+      this.cachedLayout = cachedLayout;
+      this.cachedSlot = cachedSlot;
+    }
+
+    @Override
+    Object read(JSObject jsObject) {
+      if (jsObject.getLayout() == cachedLayout) {
+        return jsObject.fastAccess(cachedSlot);
+      }
+      AbstractFieldReadNode node = replace(() -> new GenericFieldReadNode(receiver, name, lineNumber));
+      return node.read(jsObject);
+    }
+  }
+
+  private static final class GenericFieldReadNode extends AbstractFieldReadNode {
+    private GenericFieldReadNode(Node receiver, String name, int lineNumber) {
+      super(receiver, name, lineNumber);
+    }
+
+    @Override
+    Object read(JSObject jsObject) {
+      return jsObject.lookup(name);
+    }
+  }
+
+  // a field write, write() is called with the evaluated value and receiver
+  private abstract static class AbstractFieldWriteNode extends Node {
+    Node receiver;
+    final String name;
+    Node value;
+    final int lineNumber;
+
+    AbstractFieldWriteNode(Node receiver, String name, Node value, int lineNumber) {
+      this.receiver = adopt(receiver);
+      this.name = name;
+      this.value = adopt(value);
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    final boolean replaceChild(Node child, Node node) {
+      if (child == receiver) {
+        receiver = node;
+      } else if (child == value) {
+        value = node;
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    abstract void write(JSObject jsObject, Object result);
+
+    @Override
+    final Object execute(Object[] frame) {
+      var result = value.execute(frame);
+      write(asJSObject(receiver.execute(frame), lineNumber), result);
+      return result;
+    }
+  }
+
+  // a field write not executed yet, specialized on the layout of the receiver if the field already exists
+  private static final class FieldWriteNode extends AbstractFieldWriteNode {
+    private FieldWriteNode(Node receiver, String name, Node value, int lineNumber) {
+      super(receiver, name, value, lineNumber);
+    }
+
+    @Override
+    void write(JSObject jsObject, Object result) {
+      var layout = jsObject.getLayout();
+      var slot = layout.slot(name);
+      if (slot != -1 && !jsObject.isDictionary()) {
+        AbstractFieldWriteNode node = replace(() -> new CachedFieldWriteNode(receiver, name, value, lineNumber, layout, slot));
+        node.write(jsObject, result);
+        return;
+      }
+      AbstractFieldWriteNode node = replace(() -> new GenericFieldWriteNode(receiver, name, value, lineNumber));
+      node.write(jsObject, result);
+    }
+  }
+
+  private static final class CachedFieldWriteNode extends AbstractFieldWriteNode {
+    private final ArrayMap.Layout cachedLayout;
+    private final int cachedSlot;
+
+    private CachedFieldWriteNode(Node receiver, String name, Node value, int lineNumber, ArrayMap.Layout cachedLayout, int cachedSlot) {
+      super(receiver, name, value, lineNumber);
+      this.cachedLayout = cachedLayout;
+      this.cachedSlot = cachedSlot;
+    }
+
+    @Override
+    void write(JSObject jsObject, Object result) {
+      if (jsObject.getLayout() == cachedLayout) {
+        jsObject.fastRegister(cachedSlot, result);
+        return;
+      }
+      AbstractFieldWriteNode node = replace(() -> new GenericFieldWriteNode(receiver, name, value, lineNumber));
+      node.write(jsObject, result);
+    }
+  }
+
+  private static final class GenericFieldWriteNode extends AbstractFieldWriteNode {
+    private GenericFieldWriteNode(Node receiver, String name, Node value, int lineNumber) {
+      super(receiver, name, value, lineNumber);
+    }
+
+    @Override
+    void write(JSObject jsObject, Object result) {
+      jsObject.register(name, result);
+    }
+  }
+
+  private static final class MethodCallNode extends Node {
+    private Node receiver;
+    private final String name;
+    private final Node[] args;
+    private final int lineNumber;
+
+    private MethodCallNode(Node receiver, String name, Node[] args, int lineNumber) {
+      this.receiver = adopt(receiver);
+      this.name = name;
+      this.args = adoptAll(args);
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    boolean replaceChild(Node child, Node node) {
+      if (child == receiver) {
+        receiver = node;
+        return true;
+      }
+      return replaceIn(args, child, node);
+    }
+
+    @Override
+    Object execute(Object[] frame) {
+      if (!(receiver.execute(frame) instanceof JSObject jsObject)) {
+        throw new Failure("Not an object at line " + lineNumber);
+      }
+      if (!(jsObject.lookup(name) instanceof JSObject function)) {
+        throw new Failure("Method " + name + " is not a function at line " + lineNumber);
+      }
+      return FrameFunction.invoke(function, jsObject, args.length, i -> args[i].execute(frame));
+    }
+  }
+}
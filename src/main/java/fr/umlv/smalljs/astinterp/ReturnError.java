@@ -1,17 +0,0 @@
-package fr.umlv.smalljs.astinterp;
-
-import static java.util.Objects.requireNonNull;
-
-@SuppressWarnings("serial")
-final class ReturnError extends Error {
-  private final Object value;
-
-  ReturnError(Object value) {
-    super(null, null, false, false);
-    this.value = requireNonNull(value);
-  }
-  
-  public Object getValue() {
-    return value;
-  }
-}
@@ -0,0 +1,386 @@
+package fr.umlv.smalljs.astinterp;
+
+import static fr.umlv.smalljs.ir.FrameFunction.RETURN;
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.astinterp.ASTInterpreter.Context;
+import fr.umlv.smalljs.ir.FrameFunction;
+import fr.umlv.smalljs.ir.Resolver;
+import fr.umlv.smalljs.ir.Resolver.FunInfo;
+import fr.umlv.smalljs.rt.ArrayMap;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
+
+// Evaluates the AST with a stack of continuations allocated on the heap instead of the Java stack,
+// so the recursion depth of a script is only limited by the maximum number of pending evaluations
+// (the system property "smalljs.ast.maxStack").
+//
+// A continuation is an expression, the state of its evaluation and its frame,
+// the values of the evaluated sub-expressions are pushed on a value stack.
+// A call to a script function pushes the body of the function instead of calling it.
+final class Trampoline {
+  private static final int DEFAULT_MAX_STACK = 1 << 22;
+  // the state of a call waiting for the body of the callee, the callee frame is on the value stack
+  private static final int CALLED = -1;
+  // the same for a memoized callee, the callee is on the value stack below its frame
+  private static final int CALLED_MEMOIZED = -2;
+
+  private final Context context;
+  private final int maxStack;
+
+  private Expr[] exprs = new Expr[64];
+  private int[] states = new int[64];
+  private Object[][] frames = new Object[64][];
+  private int top = -1;
+
+  private Object[] values = new Object[64];
+  private int sp;
+
+  Trampoline(Context context) {
+    this.context = context;
+    this.maxStack = Integer.getInteger("smalljs.ast.maxStack", DEFAULT_MAX_STACK);
+  }
+
+  // the functions created by the trampoline, only a call from outside the trampoline runs the body here
+  private static final class TrampolineFunction extends FrameFunction {
+    private final Block body;
+    private final Context context;
+
+    private TrampolineFunction(Object[] enclosingFrame, FunInfo funInfo, MemoCache memo, Block body, Context context) {
+      super(enclosingFrame, funInfo, memo);
+      this.body = body;
+      this.context = context;
+    }
+
+    @Override
+    protected Object execute(Object[] frame) {
+      return new Trampoline(context).run(body, frame);
+    }
+  }
+
+  Object run(Expr expression, Object[] frame) {
+    var base = top;
+    push(expression, frame);
+    while (top > base) {
+      step();
+    }
+    return popValue();
+  }
+
+  private void ensureCapacity(int count) {
+    var size = top + 1 + count;
+    if (size > maxStack) {
+      throw new Failure("stack overflow, more than " + maxStack + " pending evaluations");
+    }
+    if (size > exprs.length) {
+      var capacity = Math.min(maxStack, Math.max(size, exprs.length * 2));
+      exprs = Arrays.copyOf(exprs, capacity);
+      states = Arrays.copyOf(states, capacity);
+      frames = Arrays.copyOf(frames, capacity);
+    }
+  }
+
+  // a literal or a variable access is evaluated without a continuation
+  private static boolean isImmediate(Expr expression) {
+    return expression instanceof Literal<?> || expression instanceof LocalVarAccess;
+  }
+
+  private static boolean allImmediate(List<? extends Expr> expressions) {
+    for (var i = 0; i < expressions.size(); i++) {
+      if (!isImmediate(expressions.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Object immediateValue(Expr expression, Object[] frame) {
+    if (expression instanceof Literal<?> literal) {
+      return literal.value();
+    }
+    return Resolver.load(context.resolver().binding(expression), frame, context.globalEnv());
+  }
+
+  private void push(Expr expression, Object[] frame) {
+    if (isImmediate(expression)) {
+      pushValue(immediateValue(expression, frame));
+      return;
+    }
+    ensureCapacity(1);
+    top++;
+    exprs[top] = expression;
+    states[top] = 0;
+    frames[top] = frame;
+  }
+
+  // push the expressions so they are evaluated in order, their values end up in the same order on the value stack
+  private void pushAll(List<? extends Expr> expressions, Object[] frame) {
+    if (allImmediate(expressions)) {
+      for (var i = 0; i < expressions.size(); i++) {
+        pushValue(immediateValue(expressions.get(i), frame));
+      }
+      return;
+    }
+    var count = expressions.size();
+    ensureCapacity(count);
+    for (var i = 0; i < count; i++) {
+      var index = top + count - i;
+      exprs[index] = expressions.get(i);
+      states[index] = 0;
+      frames[index] = frame;
+    }
+    top += count;
+  }
+
+  private void pushValue(Object value) {
+    if (sp == values.length) {
+      values = Arrays.copyOf(values, sp * 2);
+    }
+    values[sp++] = value;
+  }
+
+  private Object popValue() {
+    var value = values[--sp];
+    values[sp] = null;
+    return value;
+  }
+
+  private Object[] popValues(int count) {
+    var array = Arrays.copyOfRange(values, sp - count, sp);
+    Arrays.fill(values, sp - count, sp, null);
+    sp -= count;
+    return array;
+  }
+
+  private void dropValues(int count) {
+    Arrays.fill(values, sp - count, sp, null);
+    sp -= count;
+  }
+
+  // the current expression is evaluated
+  private void complete(Object value) {
+    exprs[top] = null;
+    frames[top] = null;
+    top--;
+    pushValue(value);
+  }
+
+  private void step() {
+    var expression = exprs[top];
+    var state = states[top];
+    var frame = frames[top];
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> {
+        if (state > 0 && popValue() == RETURN) {
+          complete(RETURN);
+          return;
+        }
+        if (state == instrs.size()) {
+          complete(UNDEFINED);
+          return;
+        }
+        states[top] = state + 1;
+        push(instrs.get(state), frame);
+      }
+      case Literal<?>(Object value, int _) -> complete(value);
+      case LocalVarAccess _ -> complete(Resolver.load(context.resolver().binding(expression), frame, context.globalEnv()));
+      case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
+        var binding = context.resolver().binding(expression);
+        if (state == 0) {
+          if (declaration && Resolver.load(binding, frame, context.globalEnv()) != UNDEFINED) {
+            throw new Failure("variable \"" + name + "\" is already defined at line " + lineNumber);
+          }
+          states[top] = 1;
+          push(expr, frame);
+          return;
+        }
+        var value = popValue();
+        Resolver.store(binding, frame, context.globalEnv(), value);
+        complete(value);
+      }
+      case Fun(Optional<String> optName, List<String> _, Block body, int _) -> {
+        var fun = (Fun) expression;
+        var invoker = new TrampolineFunction(frame, context.resolver().funInfo(fun), context.memo(fun), body, context);
+        var function = JSObject.newFunction(optName.orElse("lambda"), invoker);
+        if (optName.isPresent()) {
+          Resolver.store(context.resolver().binding(expression), frame, context.globalEnv(), function);
+        }
+        complete(function);
+      }
+      case Return(Expr expr, int _) -> {
+        if (state == 0) {
+          states[top] = 1;
+          push(expr, frame);
+          return;
+        }
+        var value = popValue();
+        // a return at top level ends the script
+        if (frame != null) {
+          frame[frame.length - 1] = value;
+        }
+        complete(RETURN);
+      }
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        if (state == 0) {
+          states[top] = 1;
+          push(condition, frame);
+          return;
+        }
+        // the value of the If is the value of the block, so the block replaces the If
+        exprs[top] = popValue() instanceof Integer value && value == 1 ? trueBlock : falseBlock;
+        states[top] = 0;
+      }
+      case New(Map<String, Expr> initMap, int _) -> {
+        if (state == 0) {
+          states[top] = 1;
+          pushAll(List.copyOf(initMap.values()), frame);
+          return;
+        }
+        complete(JSObject.newObject(null, ArrayMap.layout(initMap.keySet()), popValues(initMap.size())));
+      }
+      case FieldAccess(Expr receiver, String name, int lineNumber) -> {
+        if (state == 0) {
+          states[top] = 1;
+          push(receiver, frame);
+          return;
+        }
+        if (!(popValue() instanceof JSObject jsObject)) {
+          throw new Failure("Not an field at line " + lineNumber);
+        }
+        complete(jsObject.lookup(name));
+      }
+      case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
+        switch (state) {
+          case 0 -> {
+            states[top] = 1;
+            push(expr, frame);
+          }
+          case 1 -> {
+            states[top] = 2;
+            push(receiver, frame);
+          }
+          default -> {
+            if (!(popValue() instanceof JSObject jsObject)) {
+              throw new Failure("Not an field at line " + lineNumber);
+            }
+            var value = popValue();
+            jsObject.register(name, value);
+            complete(value);
+          }
+        }
+      }
+      case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
+        switch (state) {
+          case CALLED -> returnFromCall();
+          case CALLED_MEMOIZED -> returnFromMemoizedCall();
+          case 0 -> {
+            states[top] = 1;
+            push(qualifier, frame);
+          }
+          case 1 -> {
+            if (!(values[sp - 1] instanceof JSObject)) {
+              throw new Failure("Not a function at line " + lineNumber);
+            }
+            states[top] = 2;
+            pushAll(args, frame);
+          }
+          default -> {
+            // the value stack contains the function and the arguments
+            var function = (JSObject) values[sp - args.size() - 1];
+            call(function, UNDEFINED, args.size(), 1);
+          }
+        }
+      }
+      case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
+        switch (state) {
+          case CALLED -> returnFromCall();
+          case CALLED_MEMOIZED -> returnFromMemoizedCall();
+          case 0 -> {
+            states[top] = 1;
+            push(receiver, frame);
+          }
+          case 1 -> {
+            if (!(values[sp - 1] instanceof JSObject jsObject)) {
+              throw new Failure("Not an object at line " + lineNumber);
+            }
+            if (!(jsObject.lookup(name) instanceof JSObject method)) {
+              throw new Failure("Method " + name + " is not a function at line " + lineNumber);
+            }
+            pushValue(method);
+            states[top] = 2;
+            pushAll(args, frame);
+          }
+          default -> {
+            // the value stack contains the receiver, the method and the arguments
+            var method = (JSObject) values[sp - args.size() - 1];
+            var jsObject = values[sp - args.size() - 2];
+            call(method, jsObject, args.size(), 2);
+          }
+        }
+      }
+    }
+  }
+
+  // the arguments are on top of the value stack, followed by the callee (and the receiver),
+  // the body of a script function is pushed, a builtin is called directly
+  private void call(JSObject function, Object receiver, int argumentCount, int calleeCount) {
+    if (function.getInvoker() instanceof TrampolineFunction trampolineFunction) {
+      var base = sp - argumentCount;
+      var calleeFrame = trampolineFunction.newFrame(receiver, argumentCount, i -> values[base + i]);
+      dropValues(argumentCount + calleeCount);
+      var memo = trampolineFunction.memo();
+      if (memo != null && trampolineFunction.memoKey(calleeFrame) instanceof Long key) {
+        var value = memo.get(key);
+        if (value != null) {
+          complete(value);
+          return;
+        }
+        pushValue(trampolineFunction);
+        pushValue(calleeFrame);
+        states[top] = CALLED_MEMOIZED;
+      } else {
+        pushValue(calleeFrame);
+        states[top] = CALLED;
+      }
+      push(trampolineFunction.body, calleeFrame);
+      return;
+    }
+    var args = popValues(argumentCount);
+    dropValues(calleeCount);
+    complete(function.invoke(receiver, args));
+  }
+
+  private void returnFromCall() {
+    var completion = popValue();
+    var calleeFrame = (Object[]) popValue();
+    complete(completion == RETURN ? calleeFrame[calleeFrame.length - 1] : UNDEFINED);
+  }
+
+  private void returnFromMemoizedCall() {
+    var completion = popValue();
+    var calleeFrame = (Object[]) popValue();
+    var function = (TrampolineFunction) popValue();
+    var value = completion == RETURN ? calleeFrame[calleeFrame.length - 1] : UNDEFINED;
+    function.memo().put(function.memoKey(calleeFrame), value);
+    complete(value);
+  }
+}
@@ -0,0 +1,286 @@
+package fr.umlv.smalljs.closureinterp;
+
+import static fr.umlv.smalljs.ir.FrameFunction.RETURN;
+import static fr.umlv.smalljs.rt.Builtins.INT_OPERATORS;
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntBinaryOperator;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.ir.FrameFunction;
+import fr.umlv.smalljs.ir.Purity;
+import fr.umlv.smalljs.ir.Resolver;
+import fr.umlv.smalljs.ir.Resolver.Binding;
+import fr.umlv.smalljs.ir.Resolver.FunInfo;
+import fr.umlv.smalljs.rt.ArrayMap;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
+
+// Compiles each expression once into a closure, the closures of the sub-expressions are captured,
+// so executing a script is only a chain of calls to lambdas, there is no switch on the AST.
+//
+// The variables are resolved to the slots of a frame (see Resolver),
+// a return stores the value in the last slot of the frame and completes with FrameFunction.RETURN.
+final class ClosureCompiler {
+  @FunctionalInterface
+  interface Closure {
+    // the frame is null for the top level code
+    Object execute(Object[] frame);
+  }
+
+  private final Resolver resolver;
+  private final JSObject globalEnv;
+  // the pure functions that get a memo cache
+  private final Set<Fun> memoized;
+
+  private ClosureCompiler(Resolver resolver, JSObject globalEnv, Set<Fun> memoized) {
+    this.resolver = resolver;
+    this.globalEnv = globalEnv;
+    this.memoized = memoized;
+  }
+
+  static Closure compile(Block body, JSObject globalEnv) {
+    return new ClosureCompiler(Resolver.resolve(body), globalEnv, Purity.memoizedFunctions(body)).compile(body);
+  }
+
+  private Closure[] compileAll(List<? extends Expr> exprs) {
+    return exprs.stream().map(this::compile).toArray(Closure[]::new);
+  }
+
+  private Closure compile(Expr expression) {
+    return switch (expression) {
+      case Block(List<Expr> instrs, int _) -> block(compileAll(instrs));
+      case Literal<?>(Object value, int _) -> _ -> value;
+      case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
+        // the builtin operators are known before the script runs but can be redefined
+        if (qualifier instanceof LocalVarAccess(String name, int _) && INT_OPERATORS.containsKey(name) && args.size() == 2) {
+          yield operator(INT_OPERATORS.get(name), globalEnv.lookup(name), compile(qualifier), compile(args.get(0)), compile(args.get(1)), lineNumber);
+        }
+        yield call(compile(qualifier), compileAll(args), lineNumber);
+      }
+      case LocalVarAccess _ -> load(resolver.binding(expression));
+      case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) ->
+          store(resolver.binding(expression), name, declaration, compile(expr), lineNumber);
+      case Fun(Optional<String> optName, List<String> _, Block body, int _) -> {
+        var name = optName.orElse("lambda");
+        var nameBinding = optName.isPresent() ? resolver.binding(expression) : null;
+        var funInfo = resolver.funInfo((Fun) expression);
+        var memoized = this.memoized.contains((Fun) expression);
+        var bodyClosure = compile(body);
+        var globalEnv = this.globalEnv;
+        yield frame -> {
+          var memo = memoized ? new MemoCache() : null;
+          var function = JSObject.newFunction(name, new ClosureFunction(frame, funInfo, memo, bodyClosure));
+          if (nameBinding != null) {
+            Resolver.store(nameBinding, frame, globalEnv, function);
+          }
+          return function;
+        };
+      }
+      case Return(Expr expr, int _) -> {
+        var value = compile(expr);
+        yield frame -> {
+          var result = value.execute(frame);
+          // a return at top level ends the script
+          if (frame != null) {
+            frame[frame.length - 1] = result;
+          }
+          return RETURN;
+        };
+      }
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        var conditionClosure = compile(condition);
+        var trueClosure = compile(trueBlock);
+        var falseClosure = compile(falseBlock);
+        yield frame -> conditionClosure.execute(frame) instanceof Integer value && value == 1
+            ? trueClosure.execute(frame)
+            : falseClosure.execute(frame);
+      }
+      case New(Map<String, Expr> initMap, int _) -> {
+        var layout = ArrayMap.layout(initMap.keySet());
+        var values = compileAll(List.copyOf(initMap.values()));
+        yield frame -> JSObject.newObject(null, layout, evaluate(values, frame));
+      }
+      case FieldAccess(Expr receiver, String name, int lineNumber) -> {
+        var receiverClosure = compile(receiver);
+        yield frame -> asJSObject(receiverClosure.execute(frame), lineNumber).lookup(name);
+      }
+      case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
+        var receiverClosure = compile(receiver);
+        var value = compile(expr);
+        yield frame -> {
+          var result = value.execute(frame);
+          asJSObject(receiverClosure.execute(frame), lineNumber).register(name, result);
+          return result;
+        };
+      }
+      case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
+        var receiverClosure = compile(receiver);
+        var argClosures = compileAll(args);
+        yield frame -> {
+          if (!(receiverClosure.execute(frame) instanceof JSObject jsObject)) {
+            throw new Failure("Not an object at line " + lineNumber);
+          }
+          if (!(jsObject.lookup(name) instanceof JSObject function)) {
+            throw new Failure("Method " + name + " is not a function at line " + lineNumber);
+          }
+          return function.invoke(jsObject, evaluate(argClosures, frame));
+        };
+      }
+    };
+  }
+
+  private static Closure block(Closure[] instrs) {
+    return switch (instrs.length) {
+      case 0 -> _ -> UNDEFINED;
+      case 1 -> {
+        var instr = instrs[0];
+        yield frame -> instr.execute(frame) == RETURN ? RETURN : UNDEFINED;
+      }
+      default -> frame -> {
+        for (var instr : instrs) {
+          if (instr.execute(frame) == RETURN) {
+            return RETURN;
+          }
+        }
+        return UNDEFINED;
+      };
+    };
+  }
+
+  private Closure load(Binding binding) {
+    var globalEnv = this.globalEnv;
+    return switch (binding) {
+      case Binding.Global(String name) -> _ -> globalEnv.lookup(name);
+      // a local variable not yet assigned is looked up in the enclosing scopes
+      case Binding.Local(int depth, int slot, Binding outer) when depth == 0 -> frame -> {
+        var value = frame[slot];
+        return value != null ? value : Resolver.load(outer, frame, globalEnv);
+      };
+      case Binding.Local(int depth, int slot, Binding outer) -> frame -> {
+        var value = Resolver.frameAt(frame, depth)[slot];
+        return value != null ? value : Resolver.load(outer, frame, globalEnv);
+      };
+    };
+  }
+
+  private Closure store(Binding binding, String name, boolean declaration, Closure value, int lineNumber) {
+    var globalEnv = this.globalEnv;
+    Closure store = switch (binding) {
+      case Binding.Global(String globalName) -> frame -> {
+        var result = value.execute(frame);
+        globalEnv.register(globalName, result);
+        return result;
+      };
+      // a variable is always stored in the frame of the current function
+      case Binding.Local(int _, int slot, Binding _) -> frame -> {
+        var result = value.execute(frame);
+        frame[slot] = result;
+        return result;
+      };
+    };
+    if (!declaration) {
+      return store;
+    }
+    return frame -> {
+      if (Resolver.load(binding, frame, globalEnv) != UNDEFINED) {
+        throw new Failure("variable \"" + name + "\" is already defined at line " + lineNumber);
+      }
+      return store.execute(frame);
+    };
+  }
+
+  private static Object[] evaluate(Closure[] closures, Object[] frame) {
+    var values = new Object[closures.length];
+    for (var i = 0; i < values.length; i++) {
+      values[i] = closures[i].execute(frame);
+    }
+    return values;
+  }
+
+  private static JSObject asJSObject(Object value, int lineNumber) {
+    if (!(value instanceof JSObject jsObject)) {
+      throw new Failure("Not an field at line " + lineNumber);
+    }
+    return jsObject;
+  }
+
+  private static JSObject asFunction(Object value, int lineNumber) {
+    if (!(value instanceof JSObject jsObject)) {
+      throw new Failure("Not a function at line " + lineNumber);
+    }
+    return jsObject;
+  }
+
+  // the invoker of the functions created by a Fun closure
+  private static final class ClosureFunction extends FrameFunction {
+    private final Closure body;
+
+    private ClosureFunction(Object[] enclosingFrame, FunInfo funInfo, MemoCache memo, Closure body) {
+      super(enclosingFrame, funInfo, memo);
+      this.body = body;
+    }
+
+    @Override
+    protected Object execute(Object[] frame) {
+      return body.execute(frame);
+    }
+  }
+
+  // a script function with up to 3 parameters binds the arguments without an array
+  private static Closure call(Closure qualifier, Closure[] args, int lineNumber) {
+    return switch (args.length) {
+      case 0 -> frame -> asFunction(qualifier.execute(frame), lineNumber).invoke0(UNDEFINED);
+      case 1 -> {
+        var arg0 = args[0];
+        yield frame -> asFunction(qualifier.execute(frame), lineNumber).invoke1(UNDEFINED, arg0.execute(frame));
+      }
+      case 2 -> {
+        var arg0 = args[0];
+        var arg1 = args[1];
+        yield frame -> asFunction(qualifier.execute(frame), lineNumber).invoke2(UNDEFINED, arg0.execute(frame), arg1.execute(frame));
+      }
+      case 3 -> {
+        var arg0 = args[0];
+        var arg1 = args[1];
+        var arg2 = args[2];
+        yield frame -> asFunction(qualifier.execute(frame), lineNumber)
+            .invoke3(UNDEFINED, arg0.execute(frame), arg1.execute(frame), arg2.execute(frame));
+      }
+      default -> frame -> {
+        var jsObject = asFunction(qualifier.execute(frame), lineNumber);
+        return jsObject.invoke(UNDEFINED, evaluate(args, frame));
+      };
+    };
+  }
+
+  // a call to an operator is computed inline if the operator is the builtin and the operands are integers
+  private static Closure operator(IntBinaryOperator operator, Object builtin, Closure qualifier, Closure left, Closure right, int lineNumber) {
+    return frame -> {
+      var function = qualifier.execute(frame);
+      var a = left.execute(frame);
+      var b = right.execute(frame);
+      if (function == builtin && a instanceof Integer i && b instanceof Integer j) {
+        return operator.applyAsInt(i, j);
+      }
+      return asFunction(function, lineNumber).invoke2(UNDEFINED, a, b);
+    };
+  }
+}
@@ -0,0 +1,17 @@
+package fr.umlv.smalljs.closureinterp;
+
+import java.io.PrintStream;
+
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Script;
+import fr.umlv.smalljs.ir.PassManager;
+import fr.umlv.smalljs.rt.Builtins;
+import fr.umlv.smalljs.rt.JSObject;
+
+public final class ClosureInterpreter {
+  public static void interpret(Script script, PrintStream outStream) {
+    JSObject globalEnv = Builtins.createGlobalEnv(outStream);
+    Block body = PassManager.lower(script);
+    ClosureCompiler.compile(body, globalEnv).execute(null);
+  }
+}
@@ -0,0 +1,77 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+
+// Replaces an If by one of its blocks when the condition is known at compile time,
+// the instructions of the block are then spliced into the enclosing block.
+// The variables and functions declared by the other block are kept in the else branch of an "if (1)",
+// see Exprs.declarations().
+//
+// Only the conditions all the engines agree on are folded, the literal 1 and a builtin comparison
+// of two literals, the literal 0 or a string is false for the AST engines but true for the JVM engine.
+final class BranchFolding implements Pass {
+  static Optional<Boolean> truth(Expr condition, Set<String> builtinOperators) {
+    if (condition instanceof Literal<?>(Integer value, int _) && value == 1) {
+      return Optional.of(true);
+    }
+    return ConstantFolding.evaluate(condition, builtinOperators)
+        .filter(Boolean.class::isInstance)
+        .map(Boolean.class::cast);
+  }
+
+  // the variables are scoped by function, so a block inside a block can be flattened
+  private static Block flatten(Block block) {
+    var instrs = block.instrs();
+    if (instrs.stream().noneMatch(Block.class::isInstance)) {
+      return block;
+    }
+    var newInstrs = new ArrayList<Expr>();
+    for (var instr : instrs) {
+      if (instr instanceof Block(List<Expr> innerInstrs, int _)) {
+        newInstrs.addAll(innerInstrs);
+      } else {
+        newInstrs.add(instr);
+      }
+    }
+    return new Block(List.copyOf(newInstrs), block.lineNumber());
+  }
+
+  // an If already folded, the dead block contains only declarations, is returned unchanged
+  private static Expr fold(If ifExpr, Block block, Block deadBlock) {
+    var declarations = Exprs.declarations(deadBlock.instrs());
+    if (declarations.isEmpty()) {
+      return block;
+    }
+    if (block.instrs().isEmpty() && declarations.equals(deadBlock.instrs())) {
+      return ifExpr;
+    }
+    var lineNumber = ifExpr.lineNumber();
+    var neverExecuted = new If(new Literal<>(1, lineNumber),
+        new Block(List.of(), lineNumber), new Block(declarations, deadBlock.lineNumber()), lineNumber);
+    var newInstrs = new ArrayList<>(block.instrs());
+    newInstrs.add(neverExecuted);
+    return new Block(List.copyOf(newInstrs), block.lineNumber());
+  }
+
+  @Override
+  public Block run(Block body) {
+    var builtinOperators = ConstantFolding.builtinOperators(body);
+    return Exprs.rewriteBlock(body, expr -> switch (expr) {
+      case If ifExpr -> truth(ifExpr.condition(), builtinOperators)
+          .map(value -> value
+              ? fold(ifExpr, ifExpr.trueBlock(), ifExpr.falseBlock())
+              : fold(ifExpr, ifExpr.falseBlock(), ifExpr.trueBlock()))
+          .orElse(expr);
+      case Block block -> flatten(block);
+      default -> expr;
+    });
+  }
+}
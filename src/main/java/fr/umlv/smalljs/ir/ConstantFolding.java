@@ -0,0 +1,103 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+
+// Replaces a call to a builtin arithmetic operator on two integer literals by its value.
+//
+// An operator can be redefined by a script, so only the operators never assigned in the script are folded.
+// The comparisons are not folded because the engines do not represent a boolean the same way,
+// they are only folded as the condition of an If by the branch folding.
+// An overflow or a division by zero is left to the runtime.
+final class ConstantFolding implements Pass {
+  private static final Set<String> OPERATORS = Set.of("+", "-", "*", "/", "%", "==", "!=", "<", "<=", ">", ">=");
+
+  // the operators that are still the builtins of the global env
+  static Set<String> builtinOperators(Block body) {
+    var operators = new HashSet<>(OPERATORS);
+    Exprs.forEach(body, expr -> {
+      switch (expr) {
+        case LocalVarAssignment assignment -> operators.remove(assignment.name());
+        case Fun fun -> {
+          fun.optName().ifPresent(operators::remove);
+          fun.parameters().forEach(operators::remove);
+        }
+        default -> {}
+      }
+    });
+    return operators;
+  }
+
+  // the value of a call to a builtin operator with two literals, a comparison returns a Boolean
+  static Optional<Object> evaluate(Expr expression, Set<String> builtinOperators) {
+    if (expression instanceof FunCall(LocalVarAccess(String name, int _), List<Expr> args, int _)
+        && builtinOperators.contains(name)
+        && args.size() == 2
+        && args.get(0) instanceof Literal<?>(Object left, int _)
+        && args.get(1) instanceof Literal<?>(Object right, int _)) {
+      return evaluate(name, left, right);
+    }
+    return Optional.empty();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Optional<Object> evaluate(String operator, Object left, Object right) {
+    switch (operator) {
+      case "==" -> {
+        return Optional.of(left.equals(right));
+      }
+      case "!=" -> {
+        return Optional.of(!left.equals(right));
+      }
+      case "<", "<=", ">", ">=" -> {
+        if (left.getClass() != right.getClass()) {
+          return Optional.empty();
+        }
+        var comparison = ((Comparable<Object>) left).compareTo(right);
+        return Optional.of(switch (operator) {
+          case "<" -> comparison < 0;
+          case "<=" -> comparison <= 0;
+          case ">" -> comparison > 0;
+          default -> comparison >= 0;
+        });
+      }
+      default -> {
+        if (!(left instanceof Integer a) || !(right instanceof Integer b)) {
+          return Optional.empty();
+        }
+        try {
+          return switch (operator) {
+            case "+" -> Optional.of(Math.addExact(a, b));
+            case "-" -> Optional.of(Math.subtractExact(a, b));
+            case "*" -> Optional.of(Math.multiplyExact(a, b));
+            case "/" -> b == 0 ? Optional.empty() : Optional.of(a / b);
+            case "%" -> b == 0 ? Optional.empty() : Optional.of(a % b);
+            default -> throw new AssertionError(operator);
+          };
+        } catch (ArithmeticException e) {
+          return Optional.empty();
+        }
+      }
+    }
+  }
+
+  @Override
+  public Block run(Block body) {
+    var builtinOperators = builtinOperators(body);
+    return Exprs.rewriteBlock(body, expr ->
+        evaluate(expr, builtinOperators)
+            .filter(Integer.class::isInstance)
+            .<Expr>map(value -> new Literal<>(value, expr.lineNumber()))
+            .orElse(expr));
+  }
+}
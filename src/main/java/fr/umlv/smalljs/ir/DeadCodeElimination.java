@@ -0,0 +1,45 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Return;
+
+// Removes the instructions of a block that follow a return,
+// or an If with a return in both branches, they are never executed.
+// The variables and functions they declare are kept after the return, see Exprs.declarations().
+final class DeadCodeElimination implements Pass {
+  private static boolean alwaysReturns(Expr instr) {
+    return switch (instr) {
+      case Return _ -> true;
+      case Block(List<Expr> instrs, int _) -> instrs.stream().anyMatch(DeadCodeElimination::alwaysReturns);
+      case If(Expr _, Block trueBlock, Block falseBlock, int _) -> alwaysReturns(trueBlock) && alwaysReturns(falseBlock);
+      default -> false;
+    };
+  }
+
+  private static Block removeDeadCode(Block block) {
+    var instrs = block.instrs();
+    for (var i = 0; i < instrs.size() - 1; i++) {
+      if (alwaysReturns(instrs.get(i))) {
+        var deadInstrs = instrs.subList(i + 1, instrs.size());
+        var declarations = Exprs.declarations(deadInstrs);
+        if (declarations.equals(deadInstrs)) {
+          return block;
+        }
+        var newInstrs = new ArrayList<>(instrs.subList(0, i + 1));
+        newInstrs.addAll(declarations);
+        return new Block(List.copyOf(newInstrs), block.lineNumber());
+      }
+    }
+    return block;
+  }
+
+  @Override
+  public Block run(Block body) {
+    return Exprs.rewriteBlock(body, expr -> expr instanceof Block block ? removeDeadCode(block) : expr);
+  }
+}
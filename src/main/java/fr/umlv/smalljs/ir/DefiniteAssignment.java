@@ -0,0 +1,122 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.rt.JSObject;
+
+// Finds the reads of the local variables of a function that may happen before the variable is assigned.
+//
+// The env maps each local variable name to its slot, "this" and the parameters first,
+// they are assigned on entry. A read of a local variable that is not yet assigned sees the variable
+// of the enclosing function or the global variable with the same name.
+// The bodies of the inner functions are not analyzed.
+public final class DefiniteAssignment {
+  private DefiniteAssignment() {
+    throw new AssertionError();
+  }
+
+  // the accesses to a local variable that may not be assigned yet
+  public static Set<LocalVarAccess> unassignedReads(Block body, JSObject env, int parameterCount) {
+    var assigned = new BitSet();
+    assigned.set(0, parameterCount);
+    var unassignedReads = Collections.newSetFromMap(new IdentityHashMap<LocalVarAccess, Boolean>());
+    definiteAssignment(body, env, assigned, unassignedReads);
+    return unassignedReads;
+  }
+
+  // returns the slots definitely assigned after the expression or null if the expression always returns,
+  // the accesses to slots not definitely assigned are added to unassignedReads
+  private static BitSet definiteAssignment(Expr expression, JSObject env, BitSet assigned, Set<LocalVarAccess> unassignedReads) {
+    return switch (expression) {
+      case Block(List<Expr> instrs, int _) -> {
+        for (var instr : instrs) {
+          assigned = definiteAssignment(instr, env, assigned, unassignedReads);
+          if (assigned == null) {
+            break;
+          }
+        }
+        yield assigned;
+      }
+      case Literal<?> _, Fun _ -> assigned;
+      case LocalVarAccess access -> {
+        if (env.lookup(access.name()) instanceof Integer slot && !assigned.get(slot)) {
+          unassignedReads.add(access);
+        }
+        yield assigned;
+      }
+      case FunCall(Expr qualifier, List<Expr> args, int _) -> {
+        definiteAssignment(qualifier, env, assigned, unassignedReads);
+        for (var arg : args) {
+          definiteAssignment(arg, env, assigned, unassignedReads);
+        }
+        yield assigned;
+      }
+      case LocalVarAssignment(String name, Expr expr, boolean _, int _) -> {
+        definiteAssignment(expr, env, assigned, unassignedReads);
+        if (env.lookup(name) instanceof Integer slot) {
+          assigned = (BitSet) assigned.clone();
+          assigned.set(slot);
+        }
+        yield assigned;
+      }
+      case Return(Expr expr, int _) -> {
+        definiteAssignment(expr, env, assigned, unassignedReads);
+        yield null;
+      }
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        definiteAssignment(condition, env, assigned, unassignedReads);
+        var trueAssigned = definiteAssignment(trueBlock, env, assigned, unassignedReads);
+        var falseAssigned = definiteAssignment(falseBlock, env, assigned, unassignedReads);
+        if (trueAssigned == null) {
+          yield falseAssigned;
+        }
+        if (falseAssigned == null) {
+          yield trueAssigned;
+        }
+        var result = (BitSet) trueAssigned.clone();
+        result.and(falseAssigned);
+        yield result;
+      }
+      case New(Map<String, Expr> initMap, int _) -> {
+        for (var expr : initMap.values()) {
+          definiteAssignment(expr, env, assigned, unassignedReads);
+        }
+        yield assigned;
+      }
+      case FieldAccess(Expr receiver, String _, int _) -> {
+        definiteAssignment(receiver, env, assigned, unassignedReads);
+        yield assigned;
+      }
+      case FieldAssignment(Expr receiver, String _, Expr expr, int _) -> {
+        definiteAssignment(receiver, env, assigned, unassignedReads);
+        definiteAssignment(expr, env, assigned, unassignedReads);
+        yield assigned;
+      }
+      case MethodCall(Expr receiver, String _, List<Expr> args, int _) -> {
+        definiteAssignment(receiver, env, assigned, unassignedReads);
+        for (var arg : args) {
+          definiteAssignment(arg, env, assigned, unassignedReads);
+        }
+        yield assigned;
+      }
+    };
+  }
+}
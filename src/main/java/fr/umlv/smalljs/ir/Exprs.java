@@ -0,0 +1,194 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+
+// the traversals of the expressions of a script, the bodies of the functions included
+public final class Exprs {
+  private Exprs() {
+    throw new AssertionError();
+  }
+
+  // visit all the expressions, an expression is visited before its sub-expressions
+  public static void forEach(Expr expression, Consumer<? super Expr> consumer) {
+    consumer.accept(expression);
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> instrs.forEach(instr -> forEach(instr, consumer));
+      case Literal<?> _, LocalVarAccess _ -> {}
+      case FunCall(Expr qualifier, List<Expr> args, int _) -> {
+        forEach(qualifier, consumer);
+        args.forEach(arg -> forEach(arg, consumer));
+      }
+      case LocalVarAssignment(String _, Expr expr, boolean _, int _) -> forEach(expr, consumer);
+      case Fun(Optional<String> _, List<String> _, Block body, int _) -> forEach(body, consumer);
+      case Return(Expr expr, int _) -> forEach(expr, consumer);
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        forEach(condition, consumer);
+        forEach(trueBlock, consumer);
+        forEach(falseBlock, consumer);
+      }
+      case New(Map<String, Expr> initMap, int _) -> initMap.values().forEach(init -> forEach(init, consumer));
+      case FieldAccess(Expr receiver, String _, int _) -> forEach(receiver, consumer);
+      case FieldAssignment(Expr receiver, String _, Expr expr, int _) -> {
+        forEach(receiver, consumer);
+        forEach(expr, consumer);
+      }
+      case MethodCall(Expr receiver, String _, List<Expr> args, int _) -> {
+        forEach(receiver, consumer);
+        args.forEach(arg -> forEach(arg, consumer));
+      }
+    }
+  }
+
+  // instructions that declare the same variables and functions as the expressions, without computing anything,
+  // when code that is never executed is removed, its declarations must stay
+  // because they decide which variables are local to a function
+  static List<Expr> declarations(List<Expr> expressions) {
+    var declarations = new ArrayList<Expr>();
+    expressions.forEach(expression -> collectDeclarations(expression, declarations));
+    return declarations;
+  }
+
+  // the body of the inner functions excluded
+  private static void collectDeclarations(Expr expression, List<Expr> declarations) {
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> instrs.forEach(instr -> collectDeclarations(instr, declarations));
+      case Literal<?> _, LocalVarAccess _ -> {}
+      case FunCall(Expr qualifier, List<Expr> args, int _) -> {
+        collectDeclarations(qualifier, declarations);
+        args.forEach(arg -> collectDeclarations(arg, declarations));
+      }
+      case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
+        collectDeclarations(expr, declarations);
+        declarations.add(new LocalVarAssignment(name, new Literal<>(0, lineNumber), declaration, lineNumber));
+      }
+      case Fun(Optional<String> optName, List<String> parameters, Block body, int lineNumber) -> {
+        if (optName.isPresent()) {
+          declarations.add(new Fun(optName, parameters, new Block(List.of(), body.lineNumber()), lineNumber));
+        }
+      }
+      case Return(Expr expr, int _) -> collectDeclarations(expr, declarations);
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        collectDeclarations(condition, declarations);
+        collectDeclarations(trueBlock, declarations);
+        collectDeclarations(falseBlock, declarations);
+      }
+      case New(Map<String, Expr> initMap, int _) -> initMap.values().forEach(init -> collectDeclarations(init, declarations));
+      case FieldAccess(Expr receiver, String _, int _) -> collectDeclarations(receiver, declarations);
+      case FieldAssignment(Expr receiver, String _, Expr expr, int _) -> {
+        collectDeclarations(receiver, declarations);
+        collectDeclarations(expr, declarations);
+      }
+      case MethodCall(Expr receiver, String _, List<Expr> args, int _) -> {
+        collectDeclarations(receiver, declarations);
+        args.forEach(arg -> collectDeclarations(arg, declarations));
+      }
+    }
+  }
+
+  // rebuild an expression bottom-up, the rule is applied to an expression after its sub-expressions,
+  // an expression whose sub-expressions are unchanged is not rebuilt
+  public static Expr rewrite(Expr expression, UnaryOperator<Expr> rule) {
+    var rewritten = switch (expression) {
+      case Block(List<Expr> instrs, int lineNumber) -> {
+        var newInstrs = rewriteAll(instrs, rule);
+        yield newInstrs == instrs ? expression : new Block(newInstrs, lineNumber);
+      }
+      case Literal<?> _, LocalVarAccess _ -> expression;
+      case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
+        var newQualifier = rewrite(qualifier, rule);
+        var newArgs = rewriteAll(args, rule);
+        yield newQualifier == qualifier && newArgs == args ? expression : new FunCall(newQualifier, newArgs, lineNumber);
+      }
+      case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
+        var newExpr = rewrite(expr, rule);
+        yield newExpr == expr ? expression : new LocalVarAssignment(name, newExpr, declaration, lineNumber);
+      }
+      case Fun(Optional<String> optName, List<String> parameters, Block body, int lineNumber) -> {
+        var newBody = rewriteBlock(body, rule);
+        yield newBody == body ? expression : new Fun(optName, parameters, newBody, lineNumber);
+      }
+      case Return(Expr expr, int lineNumber) -> {
+        var newExpr = rewrite(expr, rule);
+        yield newExpr == expr ? expression : new Return(newExpr, lineNumber);
+      }
+      case If(Expr condition, Block trueBlock, Block falseBlock, int lineNumber) -> {
+        var newCondition = rewrite(condition, rule);
+        var newTrueBlock = rewriteBlock(trueBlock, rule);
+        var newFalseBlock = rewriteBlock(falseBlock, rule);
+        yield newCondition == condition && newTrueBlock == trueBlock && newFalseBlock == falseBlock
+            ? expression
+            : new If(newCondition, newTrueBlock, newFalseBlock, lineNumber);
+      }
+      case New(Map<String, Expr> initMap, int lineNumber) -> {
+        // keep the order of the fields
+        var newInitMap = new LinkedHashMap<String, Expr>();
+        var changed = false;
+        for (var entry : initMap.entrySet()) {
+          var init = rewrite(entry.getValue(), rule);
+          changed |= init != entry.getValue();
+          newInitMap.put(entry.getKey(), init);
+        }
+        yield changed ? new New(newInitMap, lineNumber) : expression;
+      }
+      case FieldAccess(Expr receiver, String name, int lineNumber) -> {
+        var newReceiver = rewrite(receiver, rule);
+        yield newReceiver == receiver ? expression : new FieldAccess(newReceiver, name, lineNumber);
+      }
+      case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
+        var newReceiver = rewrite(receiver, rule);
+        var newExpr = rewrite(expr, rule);
+        yield newReceiver == receiver && newExpr == expr ? expression : new FieldAssignment(newReceiver, name, newExpr, lineNumber);
+      }
+      case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
+        var newReceiver = rewrite(receiver, rule);
+        var newArgs = rewriteAll(args, rule);
+        yield newReceiver == receiver && newArgs == args ? expression : new MethodCall(newReceiver, name, newArgs, lineNumber);
+      }
+    };
+    return rule.apply(rewritten);
+  }
+
+  // the body of a function and the branches of an If must stay blocks
+  public static Block rewriteBlock(Block block, UnaryOperator<Expr> rule) {
+    if (!(rewrite(block, rule) instanceof Block newBlock)) {
+      throw new IllegalStateException("a block must be rewritten to a block");
+    }
+    return newBlock;
+  }
+
+  // returns the same list if no expression is rewritten
+  private static List<Expr> rewriteAll(List<Expr> expressions, UnaryOperator<Expr> rule) {
+    ArrayList<Expr> newExpressions = null;
+    for (var i = 0; i < expressions.size(); i++) {
+      var expression = expressions.get(i);
+      var newExpression = rewrite(expression, rule);
+      if (newExpression != expression && newExpressions == null) {
+        newExpressions = new ArrayList<>(expressions.subList(0, i));
+      }
+      if (newExpressions != null) {
+        newExpressions.add(newExpression);
+      }
+    }
+    return newExpressions == null ? expressions : List.copyOf(newExpressions);
+  }
+}
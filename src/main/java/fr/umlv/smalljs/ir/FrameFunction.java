@@ -0,0 +1,142 @@
+package fr.umlv.smalljs.ir;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+
+import fr.umlv.smalljs.ir.Resolver.FunInfo;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
+
+// The invoker of a script function for the engines that execute the functions with frames (see Resolver),
+// the arguments are bound directly to the slots of a new frame,
+// so a call with up to 3 arguments allocates nothing but the frame,
+// the results of a pure function are cached if it has a memo (null otherwise).
+public abstract class FrameFunction implements JSObject.Invoker {
+  // the completion of a return, the returned value is stored in the last slot of the frame
+  public static final Object RETURN = new Object();
+
+  // the arguments of a call, evaluated in order by get()
+  @FunctionalInterface
+  public interface Arguments {
+    Object get(int index);
+  }
+
+  private final Object[] enclosingFrame;
+  private final FunInfo funInfo;
+  private final MemoCache memo;
+
+  protected FrameFunction(Object[] enclosingFrame, FunInfo funInfo, MemoCache memo) {
+    this.enclosingFrame = enclosingFrame;
+    this.funInfo = funInfo;
+    this.memo = memo;
+  }
+
+  // execute the body, returns RETURN if the body ends with a return
+  protected abstract Object execute(Object[] frame);
+
+  public final MemoCache memo() {
+    return memo;
+  }
+
+  public final int arity() {
+    return funInfo.parameterSlots().length;
+  }
+
+  public final Object[] newFrame(Object receiver, int arity) {
+    if (arity != arity()) {
+      throw new Failure("wrong number of arguments");
+    }
+    var frame = new Object[funInfo.frameSize()];
+    frame[0] = enclosingFrame;
+    frame[1] = receiver;
+    return frame;
+  }
+
+  // a new frame with the arguments bound to the slots of the parameters
+  public final Object[] newFrame(Object receiver, int argumentCount, Arguments arguments) {
+    var frame = newFrame(receiver, argumentCount);
+    var parameterSlots = funInfo.parameterSlots();
+    for (var i = 0; i < argumentCount; i++) {
+      frame[parameterSlots[i]] = arguments.get(i);
+    }
+    return frame;
+  }
+
+  public final Object call(Object[] frame) {
+    if (memo != null && memoKey(frame) instanceof Long key) {
+      var value = memo.get(key);
+      if (value == null) {
+        value = result(frame);
+        memo.put(key, value);
+      }
+      return value;
+    }
+    return result(frame);
+  }
+
+  private Object result(Object[] frame) {
+    if (execute(frame) == RETURN) {
+      return frame[frame.length - 1];
+    }
+    return UNDEFINED;
+  }
+
+  // a pure function never assigns its parameters, so the arguments are still in the frame after the call
+  public final Long memoKey(Object[] frame) {
+    return MemoCache.key(frame, funInfo.parameterSlots());
+  }
+
+  // evaluate the arguments and call the function,
+  // a script function with up to 3 parameters binds the arguments without an array
+  public static Object invoke(JSObject function, Object receiver, int argumentCount, Arguments arguments) {
+    return switch (argumentCount) {
+      case 0 -> function.invoke0(receiver);
+      case 1 -> function.invoke1(receiver, arguments.get(0));
+      case 2 -> function.invoke2(receiver, arguments.get(0), arguments.get(1));
+      case 3 -> function.invoke3(receiver, arguments.get(0), arguments.get(1), arguments.get(2));
+      default -> {
+        var values = new Object[argumentCount];
+        for (var i = 0; i < argumentCount; i++) {
+          values[i] = arguments.get(i);
+        }
+        yield function.invoke(receiver, values);
+      }
+    };
+  }
+
+  @Override
+  public final Object invoke(Object receiver, Object... args) {
+    return call(newFrame(receiver, args.length, i -> args[i]));
+  }
+
+  @Override
+  public final Object invoke0(Object receiver) {
+    return call(newFrame(receiver, 0));
+  }
+
+  @Override
+  public final Object invoke1(Object receiver, Object arg0) {
+    var frame = newFrame(receiver, 1);
+    frame[funInfo.parameterSlots()[0]] = arg0;
+    return call(frame);
+  }
+
+  @Override
+  public final Object invoke2(Object receiver, Object arg0, Object arg1) {
+    var frame = newFrame(receiver, 2);
+    var parameterSlots = funInfo.parameterSlots();
+    frame[parameterSlots[0]] = arg0;
+    frame[parameterSlots[1]] = arg1;
+    return call(frame);
+  }
+
+  @Override
+  public final Object invoke3(Object receiver, Object arg0, Object arg1, Object arg2) {
+    var frame = newFrame(receiver, 3);
+    var parameterSlots = funInfo.parameterSlots();
+    frame[parameterSlots[0]] = arg0;
+    frame[parameterSlots[1]] = arg1;
+    frame[parameterSlots[2]] = arg2;
+    return call(frame);
+  }
+}
@@ -0,0 +1,10 @@
+package fr.umlv.smalljs.ir;
+
+import fr.umlv.smalljs.ast.Expr.Block;
+
+// a transformation of the body of a script that keeps its semantics,
+// the body is returned as is if there is nothing to transform
+@FunctionalInterface
+public interface Pass {
+  Block run(Block body);
+}
@@ -0,0 +1,38 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.List;
+
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Script;
+
+// Runs a list of passes in order on the body of a script.
+//
+// All the engines lower a script with the default passes before compiling or interpreting it,
+// so an optimization written here benefits to all of them,
+// run with -Dsmalljs.ir.optimize=false to disable the optimizations.
+public final class PassManager {
+  private static final boolean OPTIMIZE = Boolean.parseBoolean(System.getProperty("smalljs.ir.optimize", "true"));
+
+  private final List<Pass> passes;
+
+  public PassManager(List<Pass> passes) {
+    this.passes = List.copyOf(passes);
+  }
+
+  // the folding of the constants may fold a condition, and a folded If may be followed by dead code
+  public static PassManager defaultPasses() {
+    return new PassManager(List.of(new ConstantFolding(), new BranchFolding(), new DeadCodeElimination()));
+  }
+
+  public Block run(Block body) {
+    for (var pass : passes) {
+      body = pass.run(body);
+    }
+    return body;
+  }
+
+  public static Block lower(Script script) {
+    var body = script.body();
+    return OPTIMIZE ? defaultPasses().run(body) : body;
+  }
+}
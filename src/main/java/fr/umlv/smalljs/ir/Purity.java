@@ -0,0 +1,124 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
+
+// Finds the functions of a script that are pure, their result only depends on their arguments.
+//
+// A candidate is a named function declared at top level whose name is never assigned elsewhere,
+// so a call to that name always calls that function.
+// A candidate is pure if it only reads its parameters and its local variables once they are definitely assigned
+// (before, a read sees the global variable with the same name), never assigns its parameters,
+// only calls the builtin operators and the other pure functions, and does not create functions or objects,
+// so no print, no field access and no method call.
+// The candidates are first supposed pure, then the ones that call an impure function are removed
+// until nothing changes, so mutually recursive functions can be pure.
+public final class Purity {
+  private Purity() {
+    throw new AssertionError();
+  }
+
+  public static Set<Fun> pureFunctions(Block body) {
+    var declarations = new HashMap<String, Integer>();
+    Exprs.forEach(body, expr -> {
+      switch (expr) {
+        case LocalVarAssignment assignment -> declarations.merge(assignment.name(), 1, Integer::sum);
+        case FieldAssignment assignment -> declarations.merge(assignment.name(), 1, Integer::sum);
+        case Fun fun -> {
+          fun.optName().ifPresent(name -> declarations.merge(name, 1, Integer::sum));
+          fun.parameters().forEach(parameter -> declarations.merge(parameter, 1, Integer::sum));
+        }
+        default -> {}
+      }
+    });
+    var candidates = new HashMap<String, Fun>();
+    for (var instr : body.instrs()) {
+      if (instr instanceof Fun fun && fun.optName().isPresent() && declarations.get(fun.optName().orElseThrow()) == 1) {
+        candidates.put(fun.optName().orElseThrow(), fun);
+      }
+    }
+    var operators = ConstantFolding.builtinOperators(body);
+
+    boolean changed;
+    do {
+      changed = candidates.values().removeIf(fun -> !isPure(fun, candidates.keySet(), operators));
+    } while (changed);
+
+    var pureFunctions = Collections.newSetFromMap(new IdentityHashMap<Fun, Boolean>());
+    pureFunctions.addAll(candidates.values());
+    return pureFunctions;
+  }
+
+  // the pure functions that can be memoized if the memoization is enabled, an empty set otherwise
+  public static Set<Fun> memoizedFunctions(Block body) {
+    if (!MemoCache.isEnabled()) {
+      return Set.of();
+    }
+    var functions = pureFunctions(body);
+    functions.removeIf(fun -> fun.parameters().size() > MemoCache.MAX_ARITY);
+    return functions;
+  }
+
+  private static boolean isPure(Fun fun, Set<String> pureNames, Set<String> operators) {
+    // the slots of the local variables, as in the compiled code
+    var env = JSObject.newEnv(null);
+    env.register("this", 0);
+    for (var parameter : fun.parameters()) {
+      env.register(parameter, env.length());
+    }
+    var parameterCount = env.length();
+    Resolver.declareLocals(fun.body(), env);
+    var unassignedReads = DefiniteAssignment.unassignedReads(fun.body(), env, parameterCount);
+
+    var parameters = new HashSet<>(fun.parameters());
+    var locals = new HashSet<String>();
+    Exprs.forEach(fun.body(), expr -> {
+      if (expr instanceof LocalVarAssignment(String name, Expr _, boolean declaration, int _) && declaration) {
+        locals.add(name);
+      }
+    });
+    locals.removeAll(parameters);
+    return isPure(fun.body(), parameters, locals, unassignedReads, pureNames, operators);
+  }
+
+  private static boolean isPure(Expr expression, Set<String> parameters, Set<String> locals,
+                                Set<LocalVarAccess> unassignedReads, Set<String> pureNames, Set<String> operators) {
+    return switch (expression) {
+      case Block(List<Expr> instrs, int _) ->
+          instrs.stream().allMatch(instr -> isPure(instr, parameters, locals, unassignedReads, pureNames, operators));
+      case Literal<?> _ -> true;
+      case LocalVarAccess(String name, int _) ->
+          parameters.contains(name) || (locals.contains(name) && !unassignedReads.contains(expression));
+      case LocalVarAssignment(String name, Expr expr, boolean _, int _) ->
+          locals.contains(name) && isPure(expr, parameters, locals, unassignedReads, pureNames, operators);
+      case FunCall(Expr qualifier, List<Expr> args, int _) ->
+          qualifier instanceof LocalVarAccess(String name, int _)
+              && !parameters.contains(name) && !locals.contains(name)
+              && (operators.contains(name) || pureNames.contains(name))
+              && args.stream().allMatch(arg -> isPure(arg, parameters, locals, unassignedReads, pureNames, operators));
+      case Return(Expr expr, int _) -> isPure(expr, parameters, locals, unassignedReads, pureNames, operators);
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) ->
+          isPure(condition, parameters, locals, unassignedReads, pureNames, operators)
+              && isPure(trueBlock, parameters, locals, unassignedReads, pureNames, operators)
+              && isPure(falseBlock, parameters, locals, unassignedReads, pureNames, operators);
+      default -> false;
+    };
+  }
+}
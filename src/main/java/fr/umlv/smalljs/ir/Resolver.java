@@ -0,0 +1,205 @@
+package fr.umlv.smalljs.ir;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.rt.JSObject;
+
+// Resolves each variable of a script to a slot of a frame or to the global env.
+//
+// A frame is an Object[], slot 0 is the frame of the enclosing function, slot 1 is "this",
+// then the parameters and the local variables, the last slot stores the returned value.
+// The top level code has no frame.
+// It is shared by the engines that interpret the AST with frames,
+// the engines that compile a function with an env from the names to the slots use declareLocals().
+// A variable is local to a function if it is a parameter or if it is assigned in the body of the function,
+// as with an env, a local variable that is not yet assigned is null and the variable is looked up
+// in the enclosing functions and then in the global env.
+public final class Resolver {
+  public sealed interface Binding {
+    record Global(String name) implements Binding {}
+    // depth is the number of frames to walk up, outer is used if the slot is not assigned yet
+    record Local(int depth, int slot, Binding outer) implements Binding {}
+  }
+
+  public record FunInfo(int frameSize, int[] parameterSlots) {}
+
+  private record Scope(Scope parent, Map<String, Integer> slots) {}
+
+  // the expressions are records, so the side tables use identity
+  private final IdentityHashMap<Expr, Binding> bindings = new IdentityHashMap<>();
+  private final IdentityHashMap<Fun, FunInfo> funInfos = new IdentityHashMap<>();
+
+  private Resolver() {}
+
+  public static Resolver resolve(Block body) {
+    var resolver = new Resolver();
+    resolver.resolve(body, null);
+    return resolver;
+  }
+
+  // the binding of a LocalVarAccess, a LocalVarAssignment or the name of a Fun
+  public Binding binding(Expr expr) {
+    return bindings.get(expr);
+  }
+
+  public FunInfo funInfo(Fun fun) {
+    return funInfos.get(fun);
+  }
+
+  public static Object[] frameAt(Object[] frame, int depth) {
+    for (var i = 0; i < depth; i++) {
+      frame = (Object[]) frame[0];
+    }
+    return frame;
+  }
+
+  public static Object load(Binding binding, Object[] frame, JSObject globalEnv) {
+    for (;;) {
+      switch (binding) {
+        case Binding.Global(String name) -> {
+          return globalEnv.lookup(name);
+        }
+        case Binding.Local(int depth, int slot, Binding outer) -> {
+          var value = frameAt(frame, depth)[slot];
+          if (value != null) {
+            return value;
+          }
+          binding = outer;
+        }
+      }
+    }
+  }
+
+  // a variable is always stored in the frame of the current function or in the global env
+  public static void store(Binding binding, Object[] frame, JSObject globalEnv, Object value) {
+    switch (binding) {
+      case Binding.Global(String name) -> globalEnv.register(name, value);
+      case Binding.Local(int depth, int slot, Binding _) -> frameAt(frame, depth)[slot] = value;
+    }
+  }
+
+  private static Binding binding(Scope scope, String name) {
+    var depth = 0;
+    for (; scope != null; scope = scope.parent, depth++) {
+      var slot = scope.slots.get(name);
+      if (slot != null) {
+        return new Binding.Local(depth, slot, binding(scope.parent, name));
+      }
+    }
+    return new Binding.Global(name);
+  }
+
+  // collect the names assigned in a function body, the body of the inner functions excluded
+  private static void collectLocals(Expr expression, Map<String, Integer> slots) {
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> instrs.forEach(instr -> collectLocals(instr, slots));
+      case Literal<?> _, LocalVarAccess _ -> {}
+      case FunCall(Expr qualifier, List<Expr> args, int _) -> {
+        collectLocals(qualifier, slots);
+        args.forEach(arg -> collectLocals(arg, slots));
+      }
+      case LocalVarAssignment(String name, Expr expr, boolean _, int _) -> {
+        collectLocals(expr, slots);
+        slots.putIfAbsent(name, slots.size() + 1);
+      }
+      case Fun(Optional<String> optName, List<String> _, Block _, int _) ->
+          optName.ifPresent(name -> slots.putIfAbsent(name, slots.size() + 1));
+      case Return(Expr expr, int _) -> collectLocals(expr, slots);
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        collectLocals(condition, slots);
+        collectLocals(trueBlock, slots);
+        collectLocals(falseBlock, slots);
+      }
+      case New(Map<String, Expr> initMap, int _) -> initMap.values().forEach(init -> collectLocals(init, slots));
+      case FieldAccess(Expr receiver, String _, int _) -> collectLocals(receiver, slots);
+      case FieldAssignment(Expr receiver, String _, Expr expr, int _) -> {
+        collectLocals(receiver, slots);
+        collectLocals(expr, slots);
+      }
+      case MethodCall(Expr receiver, String _, List<Expr> args, int _) -> {
+        collectLocals(receiver, slots);
+        args.forEach(arg -> collectLocals(arg, slots));
+      }
+    }
+  }
+
+  // register the variables declared in a function body after "this" and the parameters,
+  // the body of the inner functions excluded, a variable declared twice uses the same slot
+  public static void declareLocals(Expr expression, JSObject env) {
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> instrs.forEach(instr -> declareLocals(instr, env));
+      case LocalVarAssignment(String name, Expr _, boolean declaration, int _) -> {
+        if (declaration && env.lookup(name) == JSObject.UNDEFINED) {
+          env.register(name, env.length());
+        }
+      }
+      case If(Expr _, Block trueBlock, Block falseBlock, int _) -> {
+        declareLocals(trueBlock, env);
+        declareLocals(falseBlock, env);
+      }
+      default -> {}
+    }
+  }
+
+  private void resolve(Expr expression, Scope scope) {
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> instrs.forEach(instr -> resolve(instr, scope));
+      case Literal<?> _ -> {}
+      case FunCall(Expr qualifier, List<Expr> args, int _) -> {
+        resolve(qualifier, scope);
+        args.forEach(arg -> resolve(arg, scope));
+      }
+      case LocalVarAccess(String name, int _) -> bindings.put(expression, binding(scope, name));
+      case LocalVarAssignment(String name, Expr expr, boolean _, int _) -> {
+        resolve(expr, scope);
+        bindings.put(expression, binding(scope, name));
+      }
+      case Fun(Optional<String> optName, List<String> parameters, Block body, int _) -> {
+        optName.ifPresent(name -> bindings.put(expression, binding(scope, name)));
+        // slot 0 is the enclosing frame, slot 1 is "this"
+        var slots = new HashMap<String, Integer>();
+        slots.put("this", 1);
+        for (var parameter : parameters) {
+          slots.putIfAbsent(parameter, slots.size() + 1);
+        }
+        var parameterSlots = parameters.stream().mapToInt(slots::get).toArray();
+        collectLocals(body, slots);
+        funInfos.put((Fun) expression, new FunInfo(slots.size() + 2, parameterSlots));
+        resolve(body, new Scope(scope, slots));
+      }
+      case Return(Expr expr, int _) -> resolve(expr, scope);
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        resolve(condition, scope);
+        resolve(trueBlock, scope);
+        resolve(falseBlock, scope);
+      }
+      case New(Map<String, Expr> initMap, int _) -> initMap.values().forEach(init -> resolve(init, scope));
+      case FieldAccess(Expr receiver, String _, int _) -> resolve(receiver, scope);
+      case FieldAssignment(Expr receiver, String _, Expr expr, int _) -> {
+        resolve(receiver, scope);
+        resolve(expr, scope);
+      }
+      case MethodCall(Expr receiver, String _, List<Expr> args, int _) -> {
+        resolve(receiver, scope);
+        args.forEach(arg -> resolve(arg, scope));
+      }
+    }
+  }
+}
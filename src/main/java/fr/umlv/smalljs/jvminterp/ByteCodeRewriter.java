@@ -2,6 +2,7 @@ package fr.umlv.smalljs.jvminterp;
 
 import static java.lang.invoke.MethodType.genericMethodType;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.joining;
 import static org.objectweb.asm.Opcodes.*;
 
 import java.io.PrintWriter;
@@ -10,9 +11,15 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 import fr.umlv.smalljs.rt.Failure;
 import org.objectweb.asm.*;
@@ -31,108 +38,334 @@ import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
 import fr.umlv.smalljs.ast.Expr.MethodCall;
 import fr.umlv.smalljs.ast.Expr.New;
 import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.ir.Exprs;
+import fr.umlv.smalljs.ir.Purity;
+import fr.umlv.smalljs.ir.Resolver;
+import fr.umlv.smalljs.jvminterp.TypeInference.Type;
 import fr.umlv.smalljs.rt.JSObject;
 
 public final class ByteCodeRewriter {
+    // all the functions of a script are compiled as static methods of one hidden class
+    private static final String SCRIPT_NAME = ByteCodeRewriter.class.getPackageName().replace('.', '/') + "/Script";
+
+    // a return inside an inlined function stores the result in a slot and jumps to the end of the call
+    private record InlinedCall(Fun fun, int resultSlot, Label end) {}
+
+    private static final class CompilationUnit {
+        private final ClassWriter cv = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        private final IdentityHashMap<Fun, String> methodNames = new IdentityHashMap<>();
+        private final HashSet<String> reservedNames = new HashSet<>();
+        private final ArrayDeque<Fun> pendingFuns = new ArrayDeque<>();
+        private final HashMap<String, Fun> globalFuns = new HashMap<>();
+        // the pure functions whose results are cached, a call to them goes through the memo
+        private final Set<Fun> memoized;
+
+        // the function being compiled (null for the main function) and the start of the current method,
+        // a self tail call jumps back to that start
+        private Fun currentFun;
+        private Label methodStart;
+        private Set<String> methodOperators;
+
+        // a specialized method checks that its operators are still the builtins after each instruction
+        // that may have run some code, if not it boxes its local variables and resumes in the generic version,
+        // the resume points are the instructions after which (or the blocks at the start of which) it resumes
+        private IdentityHashMap<Expr, Integer> resumePoints;
+        private IdentityHashMap<Expr, Label> resumeLabels;
+        private String resumeMethodName;
+        private int localVariableCount;
+        // true if some code may have been run since the start of the current instruction
+        private boolean mayRunCode;
+
+        // the first slot not used by the local variables of the current method or an inlined function
+        private int freeSlot;
+        // the functions currently inlined, the innermost first
+        private final ArrayDeque<InlinedCall> inlinedCalls = new ArrayDeque<>();
+
+        // the named functions are registered in the global environment,
+        // a name declared by several functions can not be linked statically
+        CompilationUnit(Block body) {
+            memoized = Purity.memoizedFunctions(body);
+            var duplicates = new HashSet<String>();
+            Exprs.forEach(body, expr -> {
+                if (expr instanceof Fun fun && fun.optName().isPresent()) {
+                    var name = fun.optName().orElseThrow();
+                    if (duplicates.contains(name) || globalFuns.putIfAbsent(name, fun) != null) {
+                        duplicates.add(name);
+                        globalFuns.remove(name);
+                    }
+                }
+            });
+        }
+
+        // reserve a method name and the names of its specialized versions
+        String methodName(String name) {
+            var base = sanitize(name);
+            var methodName = base;
+            for (var i = 1; !reservedNames.add(methodName); i++) {
+                methodName = base + "$" + i;
+            }
+            reservedNames.add(methodName + "$typed");
+            reservedNames.add(methodName + "$generic");
+            reservedNames.add(methodName + "$resume");
+            return methodName;
+        }
+
+        // the functions are compiled after the function that declares them
+        String register(Fun fun) {
+            return methodNames.computeIfAbsent(fun, f -> {
+                pendingFuns.add(f);
+                return methodName(f.optName().orElse("lambda"));
+            });
+        }
+    }
+
+    // a valid JVM method name
+    private static String sanitize(String name) {
+        return name.replaceAll("[.;\\[/<>]", "_");
+    }
+
     public static JSObject createFunction(String name, List<String> parameters, Block body, JSObject global) {
+        var instrs = ClassCache.getOrCompile(name, parameters, body, () -> compile(name, parameters, body));
+        var methodName = sanitize(name);
+
+        // the class is not strongly linked to its class loader, so it is unloaded with the script,
+        // the global environment is stored as class data
+        MethodHandle mh;
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClassWithClassData(instrs, global, true);
+            mh = lookup.findStatic(lookup.lookupClass(), methodName, genericMethodType(1 + parameters.size()));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+
+        return JSObject.newFunction(name, mh);
+    }
+
+    private static byte[] compile(String name, List<String> parameters, Block body) {
+        var unit = new CompilationUnit(body);
+        var cv = unit.cv;
+        cv.visit(V21, ACC_PUBLIC | ACC_SUPER | ACC_FINAL, SCRIPT_NAME, null, "java/lang/Object", null);
+        cv.visitSource("script", null);
+
+        createFunction(unit, null, unit.methodName(name), parameters, body);
+        for (Fun fun; (fun = unit.pendingFuns.poll()) != null; ) {
+            createFunction(unit, fun, unit.methodNames.get(fun), fun.parameters(), fun.body());
+        }
+        cv.visitEnd();
+
+        var instrs = cv.toByteArray();
+        if (VERIFY) {
+            verify(instrs);
+        }
+        return instrs;
+    }
+
+    private static void createFunction(CompilationUnit unit, Fun fun, String name, List<String> parameters, Block body) {
         var env = JSObject.newEnv(null);
+        unit.currentFun = fun;
 
         env.register("this", 0);
         for (String parameter : parameters) {
             env.register(parameter, env.length());
         }
         var parameterCount = env.length();
-        visitVariable(body, env);
+        Resolver.declareLocals(body, env);
         var localVariableCount = env.length();
 
-        var cv = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-        cv.visit(V21, ACC_PUBLIC | ACC_SUPER, "script", null, "java/lang/Object", null);
-        cv.visitSource("script", null);
+        var cv = unit.cv;
+        var types = TypeInference.infer(parameterCount, body, env, localVariableCount);
+        var generic = TypeInference.generic(env, localVariableCount);
+        var operators = types.operators(body);
+        var intParameters = IntStream.range(1, parameterCount).filter(slot -> types.slotType(slot) == Type.INT).toArray();
+        if (!types.isSpecialized()) {
+            createMethod(cv, name, parameterCount, localVariableCount, body, env, unit, generic);
+        } else if (operators.isEmpty() && intParameters.length == 0) {
+            // only local variables initialized with constants are unboxed, no need to check anything
+            createMethod(cv, name, parameterCount, localVariableCount, body, env, unit, types);
+        } else {
+            // the entry point checks the guesses and calls either the specialized or the generic version
+            unit.resumePoints = new IdentityHashMap<>();
+            unit.resumeMethodName = name + "$resume";
+            unit.localVariableCount = localVariableCount;
+            var typedDesc = createMethod(cv, name + "$typed", parameterCount, localVariableCount, body, env, unit, types);
+            var resumePoints = unit.resumePoints;
+            unit.resumePoints = null;
+            var genericDesc = createMethod(cv, name + "$generic", parameterCount, localVariableCount, body, env, unit, generic);
+            if (!resumePoints.isEmpty()) {
+                createResumeMethod(cv, unit.resumeMethodName, parameterCount, localVariableCount, body, env, unit, generic, resumePoints);
+            }
+            createEntryPoint(cv, name, parameterCount, operators, intParameters, types, typedDesc, genericDesc);
+        }
+    }
 
-        var methodType = genericMethodType(1 + parameters.size());
-        var desc = methodType.toMethodDescriptorString();
-        var mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC, name, desc, null, null);
+    private static String createMethod(ClassWriter cv, String methodName, int parameterCount, int localVariableCount,
+                                       Block body, JSObject env, CompilationUnit unit, TypeInference types) {
+        var desc = IntStream.range(0, parameterCount)
+            .mapToObj(slot -> types.slotType(slot).descriptor())
+            .collect(joining("", "(", ")Ljava/lang/Object;"));
+        var mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC, methodName, desc, null, null);
+        mv.visitCode();
+
+        // a deoptimization may box an unboxed local variable before it is assigned
+        if (unit.resumePoints != null) {
+          for (var i = parameterCount; i < localVariableCount; i++) {
+            if (types.slotType(i) != Type.OBJECT) {
+              mv.visitInsn(ICONST_0);
+              mv.visitVarInsn(ISTORE, i);
+            }
+          }
+        }
+        visitMethodBody(mv, parameterCount, localVariableCount, body, env, unit, types);
+        return desc;
+    }
+
+    // the generic version of a method entered after a deoptimization of the specialized version,
+    // with the boxed values of the local variables and the index of the resume point
+    private static void createResumeMethod(ClassWriter cv, String methodName, int parameterCount, int localVariableCount,
+                                           Block body, JSObject env, CompilationUnit unit, TypeInference generic,
+                                           IdentityHashMap<Expr, Integer> resumePoints) {
+        var mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC, methodName, "([Ljava/lang/Object;I)Ljava/lang/Object;", null, null);
         mv.visitCode();
 
-        //initialize local variables to undefined by default
+        // the frame and the index are moved after the local variables before the local variables are restored
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitVarInsn(ISTORE, localVariableCount + 1);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ASTORE, localVariableCount);
+        for (var slot = 0; slot < localVariableCount; slot++) {
+          mv.visitVarInsn(ALOAD, localVariableCount);
+          mv.visitLdcInsn(slot);
+          mv.visitInsn(AALOAD);
+          mv.visitVarInsn(ASTORE, slot);
+        }
+        var labels = new Label[resumePoints.size()];
+        unit.resumeLabels = new IdentityHashMap<>();
+        resumePoints.forEach((resumePoint, index) -> {
+          labels[index] = new Label();
+          unit.resumeLabels.put(resumePoint, labels[index]);
+        });
+        var start = new Label();
+        mv.visitVarInsn(ILOAD, localVariableCount + 1);
+        mv.visitTableSwitchInsn(0, labels.length - 1, start, labels);
+        mv.visitLabel(start);
+        visitMethodBody(mv, parameterCount, localVariableCount, body, env, unit, generic);
+        unit.resumeLabels = null;
+    }
+
+    private static void visitMethodBody(MethodVisitor mv, int parameterCount, int localVariableCount,
+                                        Block body, JSObject env, CompilationUnit unit, TypeInference types) {
+        // a self tail call restarts here, after the parameters have been updated
+        unit.methodStart = new Label();
+        unit.methodOperators = types.isSpecialized() ? types.operators(body) : Set.of();
+        mv.visitLabel(unit.methodStart);
+        unit.freeSlot = localVariableCount;
+
+        //initialize local variables to undefined by default,
+        //unboxed local variables are always assigned before being read
         for(var i = parameterCount; i < localVariableCount; i++) {
+          if (types.slotType(i) != Type.OBJECT) {
+            continue;
+          }
           mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
           mv.visitVarInsn(ASTORE, i);
         }
 
-        var dictionary = new FunDictionary();
-        visit(body, env, mv, dictionary);
+        visit(body, env, mv, unit, types);
 
         mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
         mv.visitInsn(ARETURN);
         mv.visitMaxs(0, 0);
         mv.visitEnd();
+    }
 
-        var instrs = cv.toByteArray();
-        dumpBytecode(instrs);
-
-        var functionClassLoader = new FunClassLoader(dictionary, global);
-        var type = functionClassLoader.createClass("script", instrs);
-
-        MethodHandle mh;
-        try {
-            mh = MethodHandles.lookup().findStatic(type, name, methodType);
-        } catch (NoSuchMethodException | IllegalAccessException e) {
-            throw new AssertionError(e);
+    // after an instruction that may have run some code, if an operator is not the builtin anymore,
+    // box the local variables and continue in the generic version
+    private static void visitDeoptimization(Expr resumePoint, MethodVisitor mv, CompilationUnit unit, TypeInference types) {
+        var index = unit.resumePoints.size();
+        unit.resumePoints.put(resumePoint, index);
+        var end = new Label();
+        mv.visitInvokeDynamicInsn("builtins", "()Z", BSM_BUILTINS, unit.methodOperators.toArray());
+        mv.visitJumpInsn(IFNE, end);
+        mv.visitLdcInsn(unit.localVariableCount);
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        for (var slot = 0; slot < unit.localVariableCount; slot++) {
+          var slotType = types.slotType(slot);
+          mv.visitInsn(DUP);
+          mv.visitLdcInsn(slot);
+          mv.visitVarInsn(slotType.loadOpcode(), slot);
+          box(slotType, mv);
+          mv.visitInsn(AASTORE);
         }
-
-        return JSObject.newFunction(name, mh);
+        mv.visitLdcInsn(index);
+        mv.visitMethodInsn(INVOKESTATIC, SCRIPT_NAME, unit.resumeMethodName, "([Ljava/lang/Object;I)Ljava/lang/Object;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitLabel(end);
     }
 
-    private static void dumpBytecode(byte[] array) {
-      var reader = new ClassReader(array);
-      CheckClassAdapter.verify(reader, true, new PrintWriter(System.err, false, UTF_8));
+    // true if the deoptimization checks are generated, i.e. the method is the specialized one
+    private static boolean deoptimizable(CompilationUnit unit, TypeInference types) {
+        return unit.resumePoints != null && types.isSpecialized();
     }
 
-    private static void visitVariable(Expr expression, JSObject env) {
-      switch (expression) {
-        case Block(List<Expr> instrs, int lineNumber) -> {
-          for (Expr instr : instrs) {
-            visitVariable(instr, env);
+    // true if evaluating the expression may run some code that redefines an operator
+    private static boolean mayRunCode(Expr expression, JSObject env, TypeInference types) {
+        var mayRunCode = new boolean[] { false };
+        Exprs.forEach(expression, expr -> {
+          switch (expr) {
+            case FunCall funCall when TypeInference.operator(funCall, env).isPresent() && types.typeOf(funCall) != Type.OBJECT -> {}
+            case FunCall _, MethodCall _ -> mayRunCode[0] = true;
+            case Fun fun when fun.optName().isPresent() -> mayRunCode[0] = true;
+            default -> {}
           }
+        });
+        return mayRunCode[0];
+    }
+
+    private static void createEntryPoint(ClassWriter cv, String name, int parameterCount, Set<String> operators,
+                                         int[] intParameters, TypeInference types, String typedDesc, String genericDesc) {
+        var desc = genericMethodType(parameterCount).toMethodDescriptorString();
+        var mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC, name, desc, null, null);
+        mv.visitCode();
+
+        var genericLabel = new Label();
+        // the operators must still be the builtins
+        if (!operators.isEmpty()) {
+          mv.visitInvokeDynamicInsn("builtins", "()Z", BSM_BUILTINS, operators.toArray());
+          mv.visitJumpInsn(IFEQ, genericLabel);
         }
-        case Literal<?>(Object value, int lineNumber) -> {
-          // do nothing
-        }
-        case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
-          // do nothing
-        }
-        case LocalVarAccess(String name, int lineNumber) -> {
-          // do nothing
+        // the parameters guessed as int must be Integers
+        for (var slot : intParameters) {
+          mv.visitVarInsn(ALOAD, slot);
+          mv.visitTypeInsn(INSTANCEOF, "java/lang/Integer");
+          mv.visitJumpInsn(IFEQ, genericLabel);
         }
-        case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
-          if (declaration) {
-            env.register(name, env.length());
+        for (var slot = 0; slot < parameterCount; slot++) {
+          mv.visitVarInsn(ALOAD, slot);
+          if (types.slotType(slot) == Type.INT) {
+            mv.visitTypeInsn(CHECKCAST, "java/lang/Integer");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I", false);
           }
         }
-        case Fun(Optional<String> optName, List<String> parameters, Block body, int lineNumber) -> {
-          // do nothing
-        }
-        case Return(Expr expr, int lineNumber) -> {
-          // do nothing
-        }
-        case If(Expr condition, Block trueBlock, Block falseBlock, int lineNumber) -> {
-          visitVariable(trueBlock, env);
-          visitVariable(falseBlock, env);
-        }
-        case New(Map<String, Expr> initMap, int lineNumber) -> {
-          // do nothing
-        }
-        case FieldAccess(Expr receiver, String name, int lineNumber) -> {
-          // do nothing
-        }
-        case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
-          // do nothing
-        }
-        case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
-          // do nothing
+        mv.visitMethodInsn(INVOKESTATIC, SCRIPT_NAME, name + "$typed", typedDesc, false);
+        mv.visitInsn(ARETURN);
+
+        // deoptimize, a guess is wrong so use the version with all values boxed
+        mv.visitLabel(genericLabel);
+        for (var slot = 0; slot < parameterCount; slot++) {
+          mv.visitVarInsn(ALOAD, slot);
         }
-      };
+        mv.visitMethodInsn(INVOKESTATIC, SCRIPT_NAME, name + "$generic", genericDesc, false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // verify and print the generated bytecode, run with -Dsmalljs.verify=true to enable
+    private static final boolean VERIFY = Boolean.getBoolean("smalljs.verify");
+
+    private static void verify(byte[] array) {
+      var reader = new ClassReader(array);
+      CheckClassAdapter.verify(reader, true, new PrintWriter(System.err, false, UTF_8));
     }
 
     private static Handle bsm(String name, Class<?> returnType, Class<?>... parameterTypes) {
@@ -145,16 +378,238 @@ public final class ByteCodeRewriter {
     private static final String RT_NAME = RT.class.getName().replace('.', '/');
     private static final Handle BSM_UNDEFINED = bsm("bsm_undefined", Object.class, Lookup.class, String.class, Class.class);
     private static final Handle BSM_CONST = bsm("bsm_const", Object.class, Lookup.class, String.class, Class.class, int.class);
+    private static final Handle BSM_OP = bsm("bsm_op", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
+    private static final Handle BSM_BUILTINS = bsm("bsm_builtins", CallSite.class, Lookup.class, String.class, MethodType.class, String[].class);
     private static final Handle BSM_FUNCALL = bsm("bsm_funcall", CallSite.class, Lookup.class, String.class, MethodType.class);
     private static final Handle BSM_LOOKUP = bsm("bsm_lookup", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
-    private static final Handle BSM_FUN = bsm("bsm_fun", Object.class, Lookup.class, String.class, Class.class, int.class);
+    private static final Handle BSM_FUN = bsm("bsm_fun", Object.class, Lookup.class, String.class, Class.class, String.class, int.class, int.class);
+    private static final Handle BSM_GLOBAL = bsm("bsm_global", CallSite.class, Lookup.class, String.class, MethodType.class, Object.class, String.class);
+    private static final Handle BSM_GLOBALCALL = bsm("bsm_globalcall", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
     private static final Handle BSM_REGISTER = bsm("bsm_register", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
     private static final Handle BSM_TRUTH = bsm("bsm_truth", CallSite.class, Lookup.class, String.class, MethodType.class);
     private static final Handle BSM_GET = bsm("bsm_get", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
     private static final Handle BSM_SET = bsm("bsm_set", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
-    private static final Handle BSM_METHODCALL = bsm("bsm_methodcall", CallSite.class, Lookup.class, String.class, MethodType.class);
+    private static final Handle BSM_METHODCALL = bsm("bsm_methodcall", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
+    private static final Handle BSM_NEW = bsm("bsm_new", CallSite.class, Lookup.class, String.class, MethodType.class, String[].class);
+
+    // generate the code of an expression as an unboxed value, the expression must have been typed with that type
+    private static void visitTyped(Expr expression, Type type, JSObject env, MethodVisitor mv, CompilationUnit unit, TypeInference types) {
+      if (type == Type.OBJECT) {
+        visit(expression, env, mv, unit, types);
+        return;
+      }
+      if (types.typeOf(expression) != type || unit.mayRunCode) {
+        throw new AssertionError("expression " + expression + " can not be typed " + type);
+      }
+      switch (expression) {
+        case Literal<?>(Object value, int lineNumber) -> mv.visitLdcInsn(value);
+        case LocalVarAccess(String name, int lineNumber) -> mv.visitVarInsn(type.loadOpcode(), (int) env.lookup(name));
+        case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
+          visitTyped(args.get(0), Type.INT, env, mv, unit, types);
+          visitTyped(args.get(1), Type.INT, env, mv, unit, types);
+          var name = ((LocalVarAccess) qualifier).name();
+          mv.visitInvokeDynamicInsn("op", "(II)" + type.descriptor(), BSM_OP, name);
+        }
+        default -> throw new AssertionError("expression " + expression + " can not be unboxed");
+      }
+    }
+
+    // the function object corresponding to a method, all the constants of a fun share the same constant pool entry
+    private static ConstantDynamic functionConstant(Fun fun, String methodName, CompilationUnit unit) {
+      var memoized = unit.memoized.contains(fun) ? 1 : 0;
+      return new ConstantDynamic(methodName, "Ljava/lang/Object;", BSM_FUN, fun.optName().orElse("lambda"), fun.parameters().size(), memoized);
+    }
+
+    // if the global is still bound to the function, call the static method directly,
+    // otherwise lookup the global and do a funcall
+    private static void visitGlobalCall(String name, Fun fun, List<Expr> args, JSObject env, MethodVisitor mv, CompilationUnit unit, TypeInference types) {
+      var methodName = unit.register(fun);
+      var desc = genericMethodType(1 + args.size()).toMethodDescriptorString();
+      mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+      for(var arg: args) {
+        visit(arg, env, mv, unit, types);
+      }
+      var slowPath = new Label();
+      var end = new Label();
+      mv.visitInvokeDynamicInsn("global", "()Z", BSM_GLOBAL, functionConstant(fun, methodName, unit), name);
+      mv.visitJumpInsn(IFEQ, slowPath);
+      mv.visitMethodInsn(INVOKESTATIC, SCRIPT_NAME, methodName, desc, false);
+      mv.visitJumpInsn(GOTO, end);
+      mv.visitLabel(slowPath);
+      mv.visitInvokeDynamicInsn("globalcall", desc, BSM_GLOBALCALL, name);
+      mv.visitLabel(end);
+      unit.mayRunCode = true;
+    }
+
+    // the maximum number of AST nodes of an inlined function and the maximum number of nested inlined calls
+    private static final int INLINING_BUDGET = 32;
+    private static final int INLINING_DEPTH = 3;
+
+    // small functions that do not call themselves and are not already being compiled or inlined
+    private static boolean canBeInlined(String name, Fun fun, CompilationUnit unit) {
+      if (unit.inlinedCalls.size() >= INLINING_DEPTH
+          || fun == unit.currentFun
+          || unit.inlinedCalls.stream().anyMatch(inlinedCall -> inlinedCall.fun == fun)) {
+        return false;
+      }
+      var size = new int[] { 0 };
+      var recursive = new boolean[] { false };
+      Exprs.forEach(fun.body(), expr -> {
+        size[0]++;
+        if (expr instanceof FunCall(LocalVarAccess(String qualifierName, int _), List<Expr> _, int _)
+            && qualifierName.equals(name)) {
+          recursive[0] = true;
+        }
+      });
+      return size[0] <= INLINING_BUDGET && !recursive[0];
+    }
+
+    // if the global is still bound to the function, execute the body of the function in the current method
+    // using fresh slots for its parameters and local variables, otherwise do a real call
+    private static void visitInlinedCall(String name, Fun fun, List<Expr> args, JSObject env, MethodVisitor mv, CompilationUnit unit, TypeInference types) {
+      var methodName = unit.register(fun);
+
+      var funEnv = JSObject.newEnv(null);
+      funEnv.register("this", 0);
+      for (var parameter : fun.parameters()) {
+        funEnv.register(parameter, funEnv.length());
+      }
+      Resolver.declareLocals(fun.body(), funEnv);
+      var slotCount = funEnv.length();
+      var base = unit.freeSlot;
+      var inlinedEnv = funEnv.mirror(slot -> (int) slot + base);
+      var resultSlot = base + slotCount;
+      unit.freeSlot = resultSlot + 1;
+
+      // the arguments are evaluated by the caller
+      for (var i = 0; i < args.size(); i++) {
+        visit(args.get(i), env, mv, unit, types);
+        mv.visitVarInsn(ASTORE, base + 1 + i);
+      }
+
+      var slowPath = new Label();
+      var end = new Label();
+      mv.visitInvokeDynamicInsn("global", "()Z", BSM_GLOBAL, functionConstant(fun, methodName, unit), name);
+      mv.visitJumpInsn(IFEQ, slowPath);
+      mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+      mv.visitVarInsn(ASTORE, base);
+      for (var slot = 1 + args.size(); slot < slotCount; slot++) {
+        mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+        mv.visitVarInsn(ASTORE, base + slot);
+      }
+      unit.inlinedCalls.push(new InlinedCall(fun, resultSlot, end));
+      visit(fun.body(), inlinedEnv, mv, unit, TypeInference.generic(inlinedEnv, unit.freeSlot));
+      unit.inlinedCalls.pop();
+      var instrs = fun.body().instrs();
+      if (instrs.isEmpty() || !(instrs.getLast() instanceof Return)) {
+        mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+        mv.visitVarInsn(ASTORE, resultSlot);
+        mv.visitJumpInsn(GOTO, end);
+      }
+
+      mv.visitLabel(slowPath);
+      mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+      for (var i = 0; i < args.size(); i++) {
+        mv.visitVarInsn(ALOAD, base + 1 + i);
+      }
+      var desc = genericMethodType(1 + args.size()).toMethodDescriptorString();
+      mv.visitInvokeDynamicInsn("globalcall", desc, BSM_GLOBALCALL, name);
+      mv.visitVarInsn(ASTORE, resultSlot);
+
+      mv.visitLabel(end);
+      mv.visitVarInsn(ALOAD, resultSlot);
+      unit.freeSlot = base;
+      unit.mayRunCode = true;
+    }
+
+    // a call to the function being compiled in tail position,
+    // the arguments must have the types of the parameters of the current method
+    private static boolean isSelfTailCall(FunCall funCall, JSObject env, CompilationUnit unit, TypeInference types) {
+      if (unit.currentFun == null
+          || !unit.inlinedCalls.isEmpty()
+          || !(funCall.qualifier() instanceof LocalVarAccess(String name, int _))
+          || env.lookup(name) != JSObject.UNDEFINED
+          || unit.globalFuns.get(name) != unit.currentFun
+          || unit.currentFun.parameters().size() != funCall.args().size()) {
+        return false;
+      }
+      // an unboxed argument can not be computed after some code that may redefine an operator
+      var args = funCall.args();
+      var mayRunCode = unit.mayRunCode;
+      for (var i = 0; i < args.size(); i++) {
+        var slotType = types.slotType(i + 1);
+        if (slotType != Type.OBJECT && (mayRunCode || types.typeOf(args.get(i)) != slotType)) {
+          return false;
+        }
+        mayRunCode |= mayRunCode(args.get(i), env, types);
+      }
+      return true;
+    }
+
+    // store the arguments in the parameters and jump to the start of the method,
+    // if the global is not bound to the current function anymore (or an operator was redefined), do a real call
+    private static void visitSelfTailCall(FunCall funCall, JSObject env, MethodVisitor mv, CompilationUnit unit, TypeInference types) {
+      var name = ((LocalVarAccess) funCall.qualifier()).name();
+      var args = funCall.args();
+      var methodName = unit.register(unit.currentFun);
+
+      // the arguments are evaluated in temporary slots, after the local variables
+      var tmpSlot = unit.freeSlot;
+      unit.freeSlot = tmpSlot + args.size();
+      for (var i = 0; i < args.size(); i++) {
+        var slotType = types.slotType(i + 1);
+        visitTyped(args.get(i), slotType, env, mv, unit, types);
+        mv.visitVarInsn(slotType.storeOpcode(), tmpSlot + i);
+      }
+      unit.freeSlot = tmpSlot;
+
+      var slowPath = new Label();
+      mv.visitInvokeDynamicInsn("global", "()Z", BSM_GLOBAL, functionConstant(unit.currentFun, methodName, unit), name);
+      mv.visitJumpInsn(IFEQ, slowPath);
+      if (!unit.methodOperators.isEmpty()) {
+        mv.visitInvokeDynamicInsn("builtins", "()Z", BSM_BUILTINS, unit.methodOperators.toArray());
+        mv.visitJumpInsn(IFEQ, slowPath);
+      }
+      mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+      mv.visitVarInsn(ASTORE, 0);
+      for (var i = 0; i < args.size(); i++) {
+        var slotType = types.slotType(i + 1);
+        mv.visitVarInsn(slotType.loadOpcode(), tmpSlot + i);
+        mv.visitVarInsn(slotType.storeOpcode(), i + 1);
+      }
+      mv.visitJumpInsn(GOTO, unit.methodStart);
+
+      mv.visitLabel(slowPath);
+      mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+      for (var i = 0; i < args.size(); i++) {
+        var slotType = types.slotType(i + 1);
+        mv.visitVarInsn(slotType.loadOpcode(), tmpSlot + i);
+        box(slotType, mv);
+      }
+      var desc = genericMethodType(1 + args.size()).toMethodDescriptorString();
+      mv.visitInvokeDynamicInsn("globalcall", desc, BSM_GLOBALCALL, name);
+      mv.visitInsn(ARETURN);
+    }
+
+    private static void visitBlockStart(Block block, boolean deoptimize, MethodVisitor mv, CompilationUnit unit, TypeInference types) {
+      if (deoptimize) {
+        visitDeoptimization(block, mv, unit, types);
+      }
+      if (unit.resumeLabels != null && unit.resumeLabels.containsKey(block)) {
+        mv.visitLabel(unit.resumeLabels.get(block));
+      }
+    }
+
+    // box the unboxed value on top of the stack
+    private static void box(Type type, MethodVisitor mv) {
+      switch (type) {
+        case INT -> mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+        case BOOLEAN -> mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+        case OBJECT -> {}
+      }
+    }
 
-    private static void visit(Expr expression, JSObject env, MethodVisitor mv, FunDictionary dictionary) {
+    private static void visit(Expr expression, JSObject env, MethodVisitor mv, CompilationUnit unit, TypeInference types) {
       switch(expression) {
         case Block(List<Expr> instrs, int lineNumber) -> {
           // for each expression
@@ -165,10 +620,17 @@ public final class ByteCodeRewriter {
             var label = new Label();
             mv.visitLabel(label);
             mv.visitLineNumber(lineNumber, label);
-            visit(instr, env, mv, dictionary);
+            unit.mayRunCode = false;
+            visit(instr, env, mv, unit, types);
             if(!(instr instanceof Expr.Instr)) {
               mv.visitInsn(Opcodes.POP);
             }
+            if (unit.mayRunCode && !(instr instanceof Return) && deoptimizable(unit, types)) {
+              visitDeoptimization(instr, mv, unit, types);
+            }
+            if (unit.resumeLabels != null && unit.resumeLabels.containsKey(instr)) {
+              mv.visitLabel(unit.resumeLabels.get(instr));
+            }
           }
         }
         case Literal<?>(Object value, int lineNumber) -> {
@@ -185,14 +647,44 @@ public final class ByteCodeRewriter {
                     throw new AssertionError();
           }
         }
-        case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
+        case FunCall funCall -> {
+          var qualifier = funCall.qualifier();
+          var args = funCall.args();
+          // a binary operator that is not shadowed by a local variable uses its own invokedynamic
+          if (TypeInference.operator(funCall, env).isPresent()) {
+            // after some code that may have redefined the operator, use the generic version
+            var type = types.typeOf(funCall);
+            if (type != Type.OBJECT && !unit.mayRunCode) {
+              visitTyped(funCall, type, env, mv, unit, types);
+              box(type, mv);
+              return;
+            }
+            visit(args.get(0), env, mv, unit, types);
+            visit(args.get(1), env, mv, unit, types);
+            var name = ((LocalVarAccess) qualifier).name();
+            mv.visitInvokeDynamicInsn("op", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", BSM_OP, name);
+            unit.mayRunCode = true;
+            return;
+          }
+          // a call to a named function of the script is linked statically
+          if (qualifier instanceof LocalVarAccess(String name, int _) && env.lookup(name) == JSObject.UNDEFINED) {
+            var fun = unit.globalFuns.get(name);
+            if (fun != null && fun.parameters().size() == args.size() && !unit.memoized.contains(fun)) {
+              if (canBeInlined(name, fun, unit)) {
+                visitInlinedCall(name, fun, args, env, mv, unit, types);
+              } else {
+                visitGlobalCall(name, fun, args, env, mv, unit, types);
+              }
+              return;
+            }
+          }
           // visit the qualifier
-          visit(qualifier, env, mv, dictionary);
+          visit(qualifier, env, mv, unit, types);
           // load "this"
           mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
           // for each argument, visit it
           for(var arg: args) {
-              visit(arg, env, mv, dictionary);
+              visit(arg, env, mv, unit, types);
           }
           // the name of the invokedynamic is either "builtincall" or "funcall"
           // generate an invokedynamic with the right name
@@ -200,18 +692,19 @@ public final class ByteCodeRewriter {
          // var handle = name == null ? BSM_FUNCALL : BSM_LOOKUP;
           var desc = "(" + "Ljava/lang/Object;".repeat(args.size() + 2) + ")Ljava/lang/Object;";
           mv.visitInvokeDynamicInsn("funcall", desc, BSM_FUNCALL);
+          unit.mayRunCode = true;
         }
         case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
-          // visit the expression
-          visit(expr, env, mv, dictionary);
           // lookup that name in the environment
           var ojb = env.lookup(name);
+          // visit the expression
+          visitTyped(expr, ojb == JSObject.UNDEFINED ? Type.OBJECT : types.slotType((int)ojb), env, mv, unit, types);
           if(ojb == JSObject.UNDEFINED) {
             // if it does not exist throw a Failure
             throw new Failure("unknown local variable " + name);
           } else {
             // otherwise STORE the top of the stack at the local variable slot
-            mv.visitVarInsn(Opcodes.ASTORE, (int)ojb);
+            mv.visitVarInsn(types.slotType((int)ojb).storeOpcode(), (int)ojb);
           }
         }
         case LocalVarAccess(String name, int lineNumber) -> {
@@ -223,73 +716,102 @@ public final class ByteCodeRewriter {
             mv.visitInvokeDynamicInsn("lookup", "()Ljava/lang/Object;", BSM_LOOKUP, name);
           } else {  // otherwise
             // load the local variable at the slot
-            mv.visitVarInsn(Opcodes.ALOAD, (int)ojb);
+            var type = types.slotType((int)ojb);
+            mv.visitVarInsn(type.loadOpcode(), (int)ojb);
+            box(type, mv);
           }
         }
         case Fun fun -> {
           Optional<String> optName = fun.optName();
-          // register the fun inside the fun directory and get the corresponding id
-          var id = dictionary.register(fun);
-          // emit a LDC to load the function corresponding to the id at runtime
-          mv.visitLdcInsn(new ConstantDynamic("fun", "Ljava/lang/Object;", BSM_FUN, id));
+          // register the fun inside the compilation unit and get the name of the corresponding method
+          var methodName = unit.register(fun);
+          // emit a LDC to load the function corresponding to the method at runtime
+          mv.visitLdcInsn(functionConstant(fun, methodName, unit));
           // generate an invokedynamic doing a register with the function name
           optName.ifPresent(name -> {
             mv.visitInsn(DUP);
             mv.visitInvokeDynamicInsn("register", "(Ljava/lang/Object;)V", BSM_REGISTER, name);
+            unit.mayRunCode = true;
           });
         }
         case Return(Expr expr, int lineNumber) -> {
+          if (expr instanceof FunCall funCall && isSelfTailCall(funCall, env, unit, types)) {
+            visitSelfTailCall(funCall, env, mv, unit, types);
+            return;
+          }
+          var inlinedCall = unit.inlinedCalls.peek();
+          if (inlinedCall != null) {
+            visit(expr, env, mv, unit, types);
+            mv.visitVarInsn(ASTORE, inlinedCall.resultSlot);
+            mv.visitJumpInsn(GOTO, inlinedCall.end);
+            return;
+          }
           // visit the return expression
-          visit(expr, env, mv, dictionary);
+          visit(expr, env, mv, unit, types);
           // generate the bytecode
           mv.visitInsn(Opcodes.ARETURN);
         }
         case If(Expr condition, Block trueBlock, Block falseBlock, int lineNumber) -> {
           // visit the condition
-          visit(condition, env, mv, dictionary);
-          // generate an invokedynamic to transform an Object to a boolean using BSM_TRUTH
-          mv.visitInvokeDynamicInsn("truth", "(Ljava/lang/Object;)Z", BSM_TRUTH);
+          if (types.typeOf(condition) == Type.BOOLEAN) {
+            visitTyped(condition, Type.BOOLEAN, env, mv, unit, types);
+          } else {
+            visit(condition, env, mv, unit, types);
+            // generate an invokedynamic to transform an Object to a boolean using BSM_TRUTH
+            mv.visitInvokeDynamicInsn("truth", "(Ljava/lang/Object;)Z", BSM_TRUTH);
+          }
           var elseLabel = new Label();
           mv.visitJumpInsn(IFEQ, elseLabel);
+          // if the condition may have run some code, each block is a resume point
+          var conditionMayRunCode = unit.mayRunCode && deoptimizable(unit, types);
           // visit the true block
-          visit(trueBlock, env, mv, dictionary);
+          visitBlockStart(trueBlock, conditionMayRunCode, mv, unit, types);
+          visit(trueBlock, env, mv, unit, types);
           // visit the false block
           var endLabel = new Label();
           mv.visitJumpInsn(GOTO, endLabel);
           mv.visitLabel(elseLabel);
-          visit(falseBlock, env, mv, dictionary);
+          visitBlockStart(falseBlock, conditionMayRunCode, mv, unit, types);
+          visit(falseBlock, env, mv, unit, types);
           mv.visitLabel(endLabel);
+          // all the instructions that may have run some code have been checked
+          unit.mayRunCode = false;
         }
         case New(Map<String, Expr> initMap, int lineNumber) -> {
-          // call newObject with an INVOKESTATIC
-          mv.visitMethodInsn(INVOKESTATIC, JSOBJECT, "newObject", "(L" + JSOBJECT + ";)L" + JSOBJECT + ";", false);
-          // for each initialization expression
-          for(var entry: initMap.entrySet()) {
-            // generate a string with the key
-            var key = entry.getKey();
-            // call register on the JSObject
-            mv.visitInsn(DUP);
-            mv.visitLdcInsn(key);
-            visit(entry.getValue(), env, mv, dictionary);
-            mv.visitMethodInsn(INVOKEVIRTUAL, JSOBJECT, "register", "(Ljava/lang/String;Ljava/lang/Object;)V", false);
+          // visit the initialization expressions in order
+          for(var init: initMap.values()) {
+            visit(init, env, mv, unit, types);
           }
+          // generate an invokedynamic that creates the object, the keys are constant
+          var desc = "(" + "Ljava/lang/Object;".repeat(initMap.size()) + ")Ljava/lang/Object;";
+          mv.visitInvokeDynamicInsn("new", desc, BSM_NEW, initMap.keySet().toArray());
         }
         case FieldAccess(Expr receiver, String name, int lineNumber) -> {
-          throw new UnsupportedOperationException("TODO FieldAccess");
           // visit the receiver
+          visit(receiver, env, mv, unit, types);
           // generate an invokedynamic that goes a get through BSM_GET
+          mv.visitInvokeDynamicInsn("get", "(Ljava/lang/Object;)Ljava/lang/Object;", BSM_GET, name);
         }
         case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
-          throw new UnsupportedOperationException("TODO FieldAssignment");
           // visit the receiver
+          visit(receiver, env, mv, unit, types);
           // visit the expression
+          visit(expr, env, mv, unit, types);
+          // generate an invokedynamic that goes a set through BSM_SET
+          mv.visitInvokeDynamicInsn("set", "(Ljava/lang/Object;Ljava/lang/Object;)V", BSM_SET, name);
         }
         case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
-          throw new UnsupportedOperationException("TODO MethodCall");
           // visit the receiver
+          visit(receiver, env, mv, unit, types);
           // for each argument
+          for(var arg: args) {
             // visit the argument
+            visit(arg, env, mv, unit, types);
+          }
           // generate an invokedynamic that call BSM_METHODCALL
+          var desc = "(" + "Ljava/lang/Object;".repeat(args.size() + 1) + ")Ljava/lang/Object;";
+          mv.visitInvokeDynamicInsn("methodcall", desc, BSM_METHODCALL, name);
+          unit.mayRunCode = true;
         }
       }
     }
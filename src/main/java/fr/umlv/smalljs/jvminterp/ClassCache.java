@@ -0,0 +1,168 @@
+package fr.umlv.smalljs.jvminterp;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.rt.DiskCache;
+import fr.umlv.smalljs.rt.MemoCache;
+
+// An on-disk cache of the generated classes,
+// enabled by setting the system property "smalljs.classcache" to a directory.
+//
+// The key is a hash of the compiler version and of the AST of the compilation unit,
+// so the cache does not need to be cleared when a script changes,
+// but COMPILER_VERSION must be changed each time the generated code changes.
+final class ClassCache {
+  static final int COMPILER_VERSION = 7;
+
+  // returns the class bytes from the cache or compile them and store them in the cache
+  static byte[] getOrCompile(String name, List<String> parameters, Block body, Supplier<byte[]> compiler) {
+    var directoryName = System.getProperty("smalljs.classcache");
+    if (directoryName == null) {
+      return compiler.get();
+    }
+    var directory = Path.of(directoryName);
+    var path = directory.resolve(hash(name, parameters, body) + ".class");
+    try {
+      return Files.readAllBytes(path);
+    } catch (IOException e) {
+      // not in the cache or not readable
+    }
+    var instrs = compiler.get();
+    DiskCache.store(path, instrs);
+    return instrs;
+  }
+
+  static String hash(String name, List<String> parameters, Block body) {
+    var digest = DiskCache.newDigest();
+    try (var output = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+      output.writeInt(COMPILER_VERSION);
+      // the calls to the pure functions are not linked statically if they are memoized
+      output.writeBoolean(MemoCache.isEnabled());
+      output.writeUTF(name);
+      writeStrings(parameters, output);
+      write(body, output);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static void writeStrings(List<String> strings, DataOutputStream output) throws IOException {
+    output.writeInt(strings.size());
+    for (var string : strings) {
+      output.writeUTF(string);
+    }
+  }
+
+  private static void writeExprs(List<Expr> exprs, DataOutputStream output) throws IOException {
+    output.writeInt(exprs.size());
+    for (var expr : exprs) {
+      write(expr, output);
+    }
+  }
+
+  // the line numbers are part of the key because they are part of the generated code
+  private static void write(Expr expression, DataOutputStream output) throws IOException {
+    output.writeInt(expression.lineNumber());
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> {
+        output.writeByte(0);
+        writeExprs(instrs, output);
+      }
+      case Literal<?>(Object value, int _) -> {
+        switch (value) {
+          case Integer i -> {
+            output.writeByte(1);
+            output.writeInt(i);
+          }
+          case String s -> {
+            output.writeByte(2);
+            output.writeUTF(s);
+          }
+          default -> throw new AssertionError("unknown literal " + value);
+        }
+      }
+      case FunCall(Expr qualifier, List<Expr> args, int _) -> {
+        output.writeByte(3);
+        write(qualifier, output);
+        writeExprs(args, output);
+      }
+      case LocalVarAccess(String name, int _) -> {
+        output.writeByte(4);
+        output.writeUTF(name);
+      }
+      case LocalVarAssignment(String name, Expr expr, boolean declaration, int _) -> {
+        output.writeByte(5);
+        output.writeUTF(name);
+        output.writeBoolean(declaration);
+        write(expr, output);
+      }
+      case Fun(Optional<String> optName, List<String> parameters, Block body, int _) -> {
+        output.writeByte(6);
+        output.writeUTF(optName.orElse(""));
+        output.writeBoolean(optName.isPresent());
+        writeStrings(parameters, output);
+        write(body, output);
+      }
+      case Return(Expr expr, int _) -> {
+        output.writeByte(7);
+        write(expr, output);
+      }
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        output.writeByte(8);
+        write(condition, output);
+        write(trueBlock, output);
+        write(falseBlock, output);
+      }
+      case New(Map<String, Expr> initMap, int _) -> {
+        output.writeByte(9);
+        output.writeInt(initMap.size());
+        for (var entry : initMap.entrySet()) {
+          output.writeUTF(entry.getKey());
+          write(entry.getValue(), output);
+        }
+      }
+      case FieldAccess(Expr receiver, String name, int _) -> {
+        output.writeByte(10);
+        write(receiver, output);
+        output.writeUTF(name);
+      }
+      case FieldAssignment(Expr receiver, String name, Expr expr, int _) -> {
+        output.writeByte(11);
+        write(receiver, output);
+        output.writeUTF(name);
+        write(expr, output);
+      }
+      case MethodCall(Expr receiver, String name, List<Expr> args, int _) -> {
+        output.writeByte(12);
+        write(receiver, output);
+        output.writeUTF(name);
+        writeExprs(args, output);
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package fr.umlv.smalljs.jvminterp;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.Optional;
+
+import fr.umlv.smalljs.rt.JSObject;
+
+enum Operator {
+  ADD("+", int.class), SUB("-", int.class), MUL("*", int.class), DIV("/", int.class), REM("%", int.class),
+  EQ("==", boolean.class), NE("!=", boolean.class),
+  LT("<", boolean.class), LE("<=", boolean.class), GT(">", boolean.class), GE(">=", boolean.class);
+
+  private final String symbol;
+  private final MethodHandle exact;
+  private final MethodHandle generic;
+
+  Operator(String symbol, Class<?> exactReturnType) {
+    this.symbol = symbol;
+    var lookup = MethodHandles.lookup();
+    var methodName = name().toLowerCase();
+    try {
+      exact = lookup.findStatic(Operator.class, methodName, methodType(exactReturnType, int.class, int.class));
+      generic = lookup.findStatic(Operator.class, methodName, methodType(Object.class, Object.class, Object.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  String symbol() {
+    return symbol;
+  }
+
+  // (int, int) -> int or (int, int) -> boolean,
+  // arithmetic operators use the exact variants and throw an ArithmeticException on overflow
+  MethodHandle exact() {
+    return exact;
+  }
+
+  // the builtin implementation (receiver, left, right) -> Object, as seen by a funcall
+  MethodHandle generic() {
+    return generic;
+  }
+
+  JSObject newBuiltin() {
+    return JSObject.newFunction(symbol, generic);
+  }
+
+  boolean isBuiltin(Object function) {
+    return function instanceof JSObject jsObject && jsObject.getMethodHandle() == generic;
+  }
+
+  private static final Operator[] OPERATORS = values();
+
+  static Optional<Operator> of(String symbol) {
+    return Arrays.stream(OPERATORS).filter(operator -> operator.symbol.equals(symbol)).findFirst();
+  }
+
+  // int specializations
+
+  private static int add(int a, int b) { return Math.addExact(a, b); }
+  private static int sub(int a, int b) { return Math.subtractExact(a, b); }
+  private static int mul(int a, int b) { return Math.multiplyExact(a, b); }
+  private static int div(int a, int b) { return a / b; }
+  private static int rem(int a, int b) { return a % b; }
+  private static boolean eq(int a, int b) { return a == b; }
+  private static boolean ne(int a, int b) { return a != b; }
+  private static boolean lt(int a, int b) { return a < b; }
+  private static boolean le(int a, int b) { return a <= b; }
+  private static boolean gt(int a, int b) { return a > b; }
+  private static boolean ge(int a, int b) { return a >= b; }
+
+  // generic builtins
+
+  private static Object add(Object receiver, Object a, Object b) { return (Integer) a + (Integer) b; }
+  private static Object sub(Object receiver, Object a, Object b) { return (Integer) a - (Integer) b; }
+  private static Object mul(Object receiver, Object a, Object b) { return (Integer) a * (Integer) b; }
+  private static Object div(Object receiver, Object a, Object b) { return (Integer) a / (Integer) b; }
+  private static Object rem(Object receiver, Object a, Object b) { return (Integer) a % (Integer) b; }
+  private static Object eq(Object receiver, Object a, Object b) { return a.equals(b); }
+  private static Object ne(Object receiver, Object a, Object b) { return !a.equals(b); }
+  private static Object lt(Object receiver, Object a, Object b) { return compare(a, b) < 0; }
+  private static Object le(Object receiver, Object a, Object b) { return compare(a, b) <= 0; }
+  private static Object gt(Object receiver, Object a, Object b) { return compare(a, b) > 0; }
+  private static Object ge(Object receiver, Object a, Object b) { return compare(a, b) >= 0; }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Object a, Object b) {
+    return ((Comparable<Object>) a).compareTo(b);
+  }
+}
@@ -1,11 +1,11 @@
 package fr.umlv.smalljs.jvminterp;
 
 import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static java.lang.invoke.MethodHandles.catchException;
 import static java.lang.invoke.MethodHandles.dropArguments;
 import static java.lang.invoke.MethodHandles.foldArguments;
 import static java.lang.invoke.MethodHandles.guardWithTest;
 import static java.lang.invoke.MethodHandles.insertArguments;
-import static java.lang.invoke.MethodHandles.invoker;
 import static java.lang.invoke.MethodType.methodType;
 
 import java.lang.invoke.CallSite;
@@ -15,14 +15,17 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+import java.util.List;
 
 import fr.umlv.smalljs.rt.ArrayMap;
 import fr.umlv.smalljs.rt.ArrayMap.Layout;
 import fr.umlv.smalljs.rt.Failure;
 import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
 
 public final class RT {
-  private static final MethodHandle LOOKUP, REGISTER, INVOKE, TRUTH, METH_LOOKUP_MH;
+  private static final MethodHandle LOOKUP, REGISTER, INVOKE, TRUTH, NEW_OBJECT, MEMOIZED;
   static {
     var lookup = MethodHandles.lookup();
     try {
@@ -33,12 +36,23 @@ public final class RT {
 
       TRUTH = lookup.findStatic(RT.class, "truth", methodType(boolean.class, Object.class));
 
-      METH_LOOKUP_MH = lookup.findStatic(RT.class, "lookupMethodHandle", methodType(MethodHandle.class, JSObject.class, String.class));
+      NEW_OBJECT = lookup.findStatic(JSObject.class, "newObject", methodType(JSObject.class, JSObject.class, Layout.class, Object[].class));
+
+      MEMOIZED = lookup.findStatic(RT.class, "memoized", methodType(Object.class, MemoCache.class, MethodHandle.class, Object[].class));
     } catch (NoSuchMethodException | IllegalAccessException e) {
       throw new AssertionError(e);
     }
   }
 
+  // the global environment is the class data of the script class
+  private static JSObject globalEnv(Lookup lookup) {
+    try {
+      return MethodHandles.classData(lookup, "_", JSObject.class);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   public static Object bsm_undefined(Lookup lookup, String name, Class<?> type) {
     return UNDEFINED;
   }
@@ -48,8 +62,7 @@ public final class RT {
   }
 
   public static CallSite bsm_lookup(Lookup lookup, String name, MethodType type, String functionName) {
-    var classLoader = (FunClassLoader) lookup.lookupClass().getClassLoader();
-    var globalEnv = classLoader.getGlobal();
+    var globalEnv = globalEnv(lookup);
     // get the LOOKUP method handle
     var mh = RT.LOOKUP;
     // use the global environment as first argument and the functionName as second argument
@@ -79,8 +92,8 @@ public final class RT {
       setTarget(MethodHandles.foldArguments(MethodHandles.exactInvoker(type), SLOW_PATH.bindTo(this)));
     }
 
-    private static boolean test(Object receiver, Object previousReceiver) {
-      return receiver == previousReceiver;
+    private static boolean test(Object qualifier, Object previousQualifier) {
+      return qualifier == previousQualifier;
     }
 
     private MethodHandle slowPath(Object qualifier, Object receiver) {
@@ -92,7 +105,7 @@ public final class RT {
       mh = mh.withVarargs(varargs);
       mh = mh.asType(type());
 
-      var test = insertArguments(TEST, 1, receiver);
+      var test = insertArguments(TEST, 1, qualifier);
       var fallback = new InliningCache(type()).dynamicInvoker();
       var guard = guardWithTest(test, mh, fallback);
       setTarget(guard);
@@ -100,16 +113,197 @@ public final class RT {
     }
   }
 
-  public static Object bsm_fun(Lookup lookup, String name, Class<?> type, int funId) {
-    var classLoader = (FunClassLoader) lookup.lookupClass().getClassLoader();
-    var globalEnv = classLoader.getGlobal();
-    var fun = classLoader.getDictionary().lookupAndClear(funId);
-    return ByteCodeRewriter.createFunction(fun.optName().orElse("lambda"), fun.parameters(), fun.body(), globalEnv);
+  public static CallSite bsm_op(Lookup lookup, String name, MethodType type, String symbol) {
+    var globalEnv = globalEnv(lookup);
+    var operator = Operator.of(symbol).orElseThrow(() -> new Failure("unknown operator " + symbol));
+    return new OperatorCache(type, globalEnv, operator);
+  }
+
+  private static class OperatorCache extends MutableCallSite {
+    private static final MethodHandle LINK, INTEGERS;
+    static {
+      var lookup = MethodHandles.lookup();
+      try {
+        LINK = lookup.findVirtual(OperatorCache.class, "link", methodType(MethodHandle.class, Object.class, Object.class));
+        INTEGERS = lookup.findStatic(OperatorCache.class, "integers", methodType(boolean.class, Object.class, Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private final JSObject globalEnv;
+    private final Operator operator;
+    private boolean onlyIntegers = true;
+
+    public OperatorCache(MethodType type, JSObject globalEnv, Operator operator) {
+      super(type);
+      this.globalEnv = globalEnv;
+      this.operator = operator;
+      setTarget(linker());
+    }
+
+    private MethodHandle linker() {
+      var link = LINK.bindTo(this).asType(methodType(MethodHandle.class, type().parameterType(0), type().parameterType(1)));
+      return foldArguments(MethodHandles.exactInvoker(type()), link);
+    }
+
+    private static boolean integers(Object left, Object right) {
+      return left instanceof Integer && right instanceof Integer;
+    }
+
+    private MethodHandle link(Object left, Object right) {
+      // read the switch point first, so a redefinition in between is not missed
+      var switchPoint = globalEnv.getSwitchPoint();
+      var function = globalEnv.lookup(operator.symbol());
+      if (!(function instanceof JSObject jsObject)) {
+        throw new Failure("operator " + operator.symbol() + " is not defined");
+      }
+
+      // the generic path is a funcall with undefined as receiver
+      var generic = insertArguments(jsObject.getMethodHandle(), 0, UNDEFINED).asType(type());
+      MethodHandle target;
+      if (operator.isBuiltin(jsObject)) {
+        // type feedback, if the operands were not both integers once, stay generic
+        onlyIntegers &= integers(left, right);
+        target = onlyIntegers ? intPath(generic) : generic;
+      } else {
+        target = generic;
+      }
+      setTarget(switchPoint.guardWithTest(target, linker()));
+      return target;
+    }
+
+    private MethodHandle intPath(MethodHandle generic) {
+      // the exact operation may overflow, in that case let the builtin compute the result
+      var exact = operator.exact().asType(type());
+      exact = catchException(exact, ArithmeticException.class, dropArguments(generic, 0, ArithmeticException.class));
+      if (type().parameterType(0) == int.class) {
+        // the operands are already unboxed
+        return exact;
+      }
+      return guardWithTest(INTEGERS, exact, generic);
+    }
+  }
+
+  public static CallSite bsm_builtins(Lookup lookup, String name, MethodType type, String... symbols) {
+    var globalEnv = globalEnv(lookup);
+    var operators = Arrays.stream(symbols).map(symbol -> Operator.of(symbol).orElseThrow()).toList();
+    return new BuiltinsGuard(globalEnv, operators);
+  }
+
+  // true if all the operators are still the builtins
+  private static class BuiltinsGuard extends MutableCallSite {
+    private static final MethodHandle CHECK;
+    static {
+      var lookup = MethodHandles.lookup();
+      try {
+        CHECK = lookup.findVirtual(BuiltinsGuard.class, "check", methodType(boolean.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private final JSObject globalEnv;
+    private final List<Operator> operators;
+
+    public BuiltinsGuard(JSObject globalEnv, List<Operator> operators) {
+      super(methodType(boolean.class));
+      this.globalEnv = globalEnv;
+      this.operators = operators;
+      setTarget(CHECK.bindTo(this));
+    }
+
+    private boolean check() {
+      var switchPoint = globalEnv.getSwitchPoint();
+      var builtins = operators.stream().allMatch(operator -> operator.isBuiltin(globalEnv.lookup(operator.symbol())));
+      setTarget(switchPoint.guardWithTest(MethodHandles.constant(boolean.class, builtins), CHECK.bindTo(this)));
+      return builtins;
+    }
+  }
+
+  public static CallSite bsm_global(Lookup lookup, String name, MethodType type, Object function, String functionName) {
+    var globalEnv = globalEnv(lookup);
+    return new GlobalGuard(globalEnv, functionName, function);
+  }
+
+  // true if the global is still bound to the function
+  private static class GlobalGuard extends MutableCallSite {
+    private static final MethodHandle CHECK;
+    static {
+      var lookup = MethodHandles.lookup();
+      try {
+        CHECK = lookup.findVirtual(GlobalGuard.class, "check", methodType(boolean.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private final JSObject globalEnv;
+    private final String functionName;
+    private final Object function;
+
+    public GlobalGuard(JSObject globalEnv, String functionName, Object function) {
+      super(methodType(boolean.class));
+      this.globalEnv = globalEnv;
+      this.functionName = functionName;
+      this.function = function;
+      setTarget(CHECK.bindTo(this));
+    }
+
+    private boolean check() {
+      var switchPoint = globalEnv.getSwitchPoint();
+      var bound = globalEnv.lookup(functionName) == function;
+      setTarget(switchPoint.guardWithTest(MethodHandles.constant(boolean.class, bound), CHECK.bindTo(this)));
+      return bound;
+    }
+  }
+
+  public static CallSite bsm_globalcall(Lookup lookup, String name, MethodType type, String functionName) {
+    var globalEnv = globalEnv(lookup);
+    // lookup the function and use it as qualifier of a funcall
+    var combiner = insertArguments(LOOKUP, 0, globalEnv, functionName);
+    var funcall = new InliningCache(type.insertParameterTypes(0, Object.class)).dynamicInvoker();
+    return new ConstantCallSite(foldArguments(funcall, combiner));
+  }
+
+  public static Object bsm_fun(Lookup lookup, String name, Class<?> type, String functionName, int parameterCount, int memoized) {
+    // the function is a static method of the script class
+    MethodHandle mh;
+    try {
+      mh = lookup.findStatic(lookup.lookupClass(), name, MethodType.genericMethodType(1 + parameterCount));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+    if (memoized != 0) {
+      // the function is pure, a call goes through its memo cache
+      var target = mh.asSpreader(Object[].class, 1 + parameterCount);
+      mh = insertArguments(MEMOIZED, 0, new MemoCache(), target).asCollector(Object[].class, 1 + parameterCount);
+    }
+    return JSObject.newFunction(functionName, mh);
+  }
+
+  // args contains the receiver then the arguments
+  @SuppressWarnings("unused")  // used by a method handle
+  private static Object memoized(MemoCache memo, MethodHandle target, Object[] args) throws Throwable {
+    var key = switch (args.length) {
+      case 1 -> MemoCache.key();
+      case 2 -> MemoCache.key(args[1]);
+      case 3 -> MemoCache.key(args[1], args[2]);
+      default -> null;
+    };
+    if (key == null) {
+      return (Object) target.invokeExact(args);
+    }
+    var value = memo.get(key);
+    if (value == null) {
+      value = (Object) target.invokeExact(args);
+      memo.put(key, value);
+    }
+    return value;
   }
 
   public static CallSite bsm_register(Lookup lookup, String name, MethodType type, String functionName) {
-    var classLoader = (FunClassLoader) lookup.lookupClass().getClassLoader();
-    var globalEnv = classLoader.getGlobal();
+    var globalEnv = globalEnv(lookup);
     //get the REGISTER method handle
     var mh = REGISTER;
     // use the global environment as first argument and the functionName as second argument
@@ -129,35 +323,104 @@ public final class RT {
     return new ConstantCallSite(mh);
   }
 
-  public static CallSite bsm_get(Lookup lookup, String name, MethodType type, String fieldName) {
-    // get the LOOKUP method handle
-    var mh = RT.LOOKUP;
-    // use the fieldName as second argument
-    mh = insertArguments(mh, 1, fieldName);
-    // make it accept an Object (not a JSObject) as first parameter
-    mh = dropArguments(mh, 1, JSObject.class);
-    // create a constant callsite
+  public static CallSite bsm_new(Lookup lookup, String name, MethodType type, String... keys) {
+    // the layout of the objects created at an allocation site is always the same,
+    // the values are collected in an array used as is by the object
+    var layout = ArrayMap.layout(Arrays.asList(keys));
+    var mh = insertArguments(NEW_OBJECT, 0, null, layout);
+    mh = mh.asCollector(Object[].class, keys.length).asType(type);
     return new ConstantCallSite(mh);
   }
 
+  public static CallSite bsm_get(Lookup lookup, String name, MethodType type, String fieldName) {
+    return new FieldCache(type, fieldName);
+  }
+
   public static CallSite bsm_set(Lookup lookup, String name, MethodType type, String fieldName) {
-    throw new UnsupportedOperationException("TODO bsm_set");
-    // get the REGISTER method handle
-    // use the fieldName as second argument
-    // make it accept an Object (not a JSObject) as first parameter
-    // create a constant callsite
+    return new FieldCache(type, fieldName);
   }
 
-  @SuppressWarnings("unused")  // used by a method handle
-  private static MethodHandle lookupMethodHandle(JSObject receiver, String fieldName) {
-    var function = (JSObject) receiver.lookup(fieldName);
-    return function.getMethodHandle();
+  // an inline cache on the layout of the receiver, the slot of the field is the same for all objects with the same layout.
+  // Used both to get a field (receiver) -> Object and to set a field (receiver, value) -> void
+  private static class FieldCache extends MutableCallSite {
+    private static final MethodHandle SLOW_PATH, CHECK_LAYOUT, FAST_ACCESS, FAST_REGISTER, GET, SET;
+    static {
+      var lookup = MethodHandles.lookup();
+      try {
+        SLOW_PATH = lookup.findVirtual(FieldCache.class, "slowPath", methodType(MethodHandle.class, Object.class));
+        CHECK_LAYOUT = lookup.findStatic(FieldCache.class, "checkLayout", methodType(boolean.class, Object.class, Layout.class));
+        FAST_ACCESS = lookup.findVirtual(JSObject.class, "fastAccess", methodType(Object.class, int.class));
+        FAST_REGISTER = lookup.findVirtual(JSObject.class, "fastRegister", methodType(void.class, int.class, Object.class));
+        GET = lookup.findStatic(FieldCache.class, "get", methodType(Object.class, Object.class, String.class));
+        SET = lookup.findStatic(FieldCache.class, "set", methodType(void.class, Object.class, String.class, Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private static final int MAX_DEPTH = 4;
+
+    private final String fieldName;
+    private final MethodHandle generic;
+    private int depth;
+
+    public FieldCache(MethodType type, String fieldName) {
+      super(type);
+      this.fieldName = fieldName;
+      this.generic = insertArguments(isGetter() ? GET : SET, 1, fieldName).asType(type);
+      setTarget(foldArguments(MethodHandles.exactInvoker(type), SLOW_PATH.bindTo(this).asType(methodType(MethodHandle.class, type.parameterType(0)))));
+    }
+
+    private boolean isGetter() {
+      return type().returnType() != void.class;
+    }
+
+    private static boolean checkLayout(Object receiver, Layout layout) {
+      return receiver instanceof JSObject jsObject && jsObject.getLayout() == layout;
+    }
+
+    private static JSObject asJSObject(Object receiver, String fieldName) {
+      if (!(receiver instanceof JSObject jsObject)) {
+        throw new Failure("can not access to the field " + fieldName + " of " + receiver);
+      }
+      return jsObject;
+    }
+
+    private static Object get(Object receiver, String fieldName) {
+      return asJSObject(receiver, fieldName).lookup(fieldName);
+    }
+
+    private static void set(Object receiver, String fieldName, Object value) {
+      asJSObject(receiver, fieldName).register(fieldName, value);
+    }
+
+    private MethodHandle slowPath(Object receiver) {
+      var jsObject = asJSObject(receiver, fieldName);
+      if (jsObject.isDictionary()) {
+        // an object used as a map, its layout says nothing about its fields
+        setTarget(generic);
+        return generic;
+      }
+      if (depth == MAX_DEPTH) {
+        // megamorphic
+        setTarget(generic);
+        return generic;
+      }
+      depth++;
+      var layout = jsObject.getLayout();
+      var slot = layout.slot(fieldName);
+      // the field is in a prototype or is added, the generic access is cached for the layout
+      var path = slot == -1 ? generic : insertArguments(isGetter() ? FAST_ACCESS : FAST_REGISTER, 1, slot).asType(type());
+      var test = insertArguments(CHECK_LAYOUT, 1, layout);
+      setTarget(guardWithTest(test, path, getTarget()));
+      return path;
+    }
   }
 
-  public static CallSite bsm_methodcall(Lookup lookup, String name, MethodType type) {
-    throw new UnsupportedOperationException("TODO bsm_methodcall");
-    //var combiner = insertArguments(METH_LOOKUP_MH, 1, name).asType(methodType(MethodHandle.class, Object.class));
-    //var target = foldArguments(invoker(type), combiner);
-    //return new ConstantCallSite(target);
+  public static CallSite bsm_methodcall(Lookup lookup, String name, MethodType type, String methodName) {
+    // get the method from the receiver using a field cache, then call it with a funcall inlining cache
+    var getter = new FieldCache(methodType(Object.class, Object.class), methodName).dynamicInvoker();
+    var funcall = new InliningCache(type.insertParameterTypes(0, Object.class)).dynamicInvoker();
+    return new ConstantCallSite(foldArguments(funcall, getter));
   }
 }
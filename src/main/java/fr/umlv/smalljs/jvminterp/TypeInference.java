@@ -0,0 +1,271 @@
+package fr.umlv.smalljs.jvminterp;
+
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.ISTORE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.ir.DefiniteAssignment;
+import fr.umlv.smalljs.rt.JSObject;
+
+// Infers which local variables of a function can be stored unboxed.
+//
+// A local variable is an int (resp. a boolean) if it is definitely assigned before being read
+// and all the values assigned to it are ints (resp. booleans).
+// Integer literals are ints, an arithmetic operator on ints is an int and a comparison on ints is a boolean,
+// this supposes that the operators are the builtins, so the generated code has to check that before entering
+// the specialized code.
+// A parameter is guessed to be an int if it is used as an operand of an operator,
+// the guess is checked at runtime by the entry point of the function.
+final class TypeInference {
+  enum Type {
+    INT("I", ILOAD, ISTORE), BOOLEAN("Z", ILOAD, ISTORE), OBJECT("Ljava/lang/Object;", ALOAD, ASTORE);
+
+    private final String descriptor;
+    private final int loadOpcode;
+    private final int storeOpcode;
+
+    Type(String descriptor, int loadOpcode, int storeOpcode) {
+      this.descriptor = descriptor;
+      this.loadOpcode = loadOpcode;
+      this.storeOpcode = storeOpcode;
+    }
+
+    String descriptor() {
+      return descriptor;
+    }
+    int loadOpcode() {
+      return loadOpcode;
+    }
+    int storeOpcode() {
+      return storeOpcode;
+    }
+
+    // null is the bottom of the lattice (no value seen yet)
+    private static Type join(Type type1, Type type2) {
+      if (type1 == null) {
+        return type2;
+      }
+      if (type2 == null || type1 == type2) {
+        return type1;
+      }
+      return OBJECT;
+    }
+  }
+
+  private final JSObject env;
+  private final Type[] slotTypes;
+  private final boolean specialized;
+
+  private TypeInference(JSObject env, Type[] slotTypes, boolean specialized) {
+    this.env = env;
+    this.slotTypes = slotTypes;
+    this.specialized = specialized;
+  }
+
+  // all values are boxed
+  static TypeInference generic(JSObject env, int slotCount) {
+    var slotTypes = new Type[slotCount];
+    Arrays.fill(slotTypes, Type.OBJECT);
+    return new TypeInference(env, slotTypes, false);
+  }
+
+  // env maps each local variable name (this and the parameters first) to its slot
+  static TypeInference infer(int parameterCount, Block body, JSObject env, int slotCount) {
+    var assignments = new ArrayList<List<Expr>>();
+    for (var i = 0; i < slotCount; i++) {
+      assignments.add(new ArrayList<>());
+    }
+    var operands = new BitSet();
+    collect(body, env, assignments, operands);
+
+    var unassignedReads = new BitSet();
+    for (var access : DefiniteAssignment.unassignedReads(body, env, parameterCount)) {
+      unassignedReads.set((int) env.lookup(access.name()));
+    }
+
+    var slotTypes = new Type[slotCount];
+    slotTypes[0] = Type.OBJECT;   // this
+    for (var slot = 1; slot < slotCount; slot++) {
+      if (slot < parameterCount) {
+        slotTypes[slot] = operands.get(slot) ? Type.INT : Type.OBJECT;
+      } else if (unassignedReads.get(slot)) {
+        slotTypes[slot] = Type.OBJECT;
+      }
+    }
+
+    // the types only go up in the lattice, so this loop ends
+    var inference = new TypeInference(env, slotTypes, true);
+    boolean changed;
+    do {
+      changed = false;
+      for (var slot = 1; slot < slotCount; slot++) {
+        var type = slotTypes[slot];
+        for (var expr : assignments.get(slot)) {
+          type = Type.join(type, inference.typeOf(expr));
+        }
+        if (type != slotTypes[slot]) {
+          slotTypes[slot] = type;
+          changed = true;
+        }
+      }
+    } while (changed);
+
+    for (var slot = 0; slot < slotCount; slot++) {
+      if (slotTypes[slot] == null) {
+        slotTypes[slot] = Type.OBJECT;
+      }
+    }
+    return inference;
+  }
+
+  Type slotType(int slot) {
+    return slotTypes[slot];
+  }
+
+  boolean isSpecialized() {
+    return specialized && Arrays.stream(slotTypes).anyMatch(type -> type != Type.OBJECT);
+  }
+
+  // the type of the value produced by an expression
+  Type typeOf(Expr expr) {
+    if (!specialized) {
+      return Type.OBJECT;
+    }
+    return switch (expr) {
+      case Literal<?>(Object value, int _) -> value instanceof Integer ? Type.INT : Type.OBJECT;
+      case LocalVarAccess(String name, int _) -> {
+        var slot = env.lookup(name);
+        yield slot == JSObject.UNDEFINED ? Type.OBJECT : slotTypes[(int) slot];
+      }
+      case FunCall funCall -> {
+        var operator = operator(funCall, env);
+        if (operator.isEmpty()) {
+          yield Type.OBJECT;
+        }
+        var left = typeOf(funCall.args().get(0));
+        var right = typeOf(funCall.args().get(1));
+        if ((left != null && left != Type.INT) || (right != null && right != Type.INT)) {
+          yield Type.OBJECT;
+        }
+        yield operator.orElseThrow().exact().type().returnType() == int.class ? Type.INT : Type.BOOLEAN;
+      }
+      default -> Type.OBJECT;
+    };
+  }
+
+  // the operators that must be the builtins for the specialized code to be valid
+  Set<String> operators(Block body) {
+    var operators = new LinkedHashSet<String>();
+    if (specialized) {
+      collectOperators(body, operators);
+    }
+    return operators;
+  }
+
+  private void collectOperators(Expr expression, Set<String> operators) {
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> instrs.forEach(instr -> collectOperators(instr, operators));
+      case Literal<?> _, LocalVarAccess _, Fun _ -> {}
+      case FunCall funCall -> {
+        var type = typeOf(funCall);
+        if (type != Type.OBJECT) {
+          operators.add(((LocalVarAccess) funCall.qualifier()).name());
+        }
+        collectOperators(funCall.qualifier(), operators);
+        funCall.args().forEach(arg -> collectOperators(arg, operators));
+      }
+      case LocalVarAssignment(String _, Expr expr, boolean _, int _) -> collectOperators(expr, operators);
+      case Return(Expr expr, int _) -> collectOperators(expr, operators);
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        collectOperators(condition, operators);
+        collectOperators(trueBlock, operators);
+        collectOperators(falseBlock, operators);
+      }
+      case New(Map<String, Expr> initMap, int _) -> initMap.values().forEach(expr -> collectOperators(expr, operators));
+      case FieldAccess(Expr receiver, String _, int _) -> collectOperators(receiver, operators);
+      case FieldAssignment(Expr receiver, String _, Expr expr, int _) -> {
+        collectOperators(receiver, operators);
+        collectOperators(expr, operators);
+      }
+      case MethodCall(Expr receiver, String _, List<Expr> args, int _) -> {
+        collectOperators(receiver, operators);
+        args.forEach(arg -> collectOperators(arg, operators));
+      }
+    }
+  }
+
+  // a call to a binary operator that is not shadowed by a local variable
+  static Optional<Operator> operator(FunCall funCall, JSObject env) {
+    if (funCall.qualifier() instanceof LocalVarAccess(String name, int _) && funCall.args().size() == 2
+        && env.lookup(name) == JSObject.UNDEFINED) {
+      return Operator.of(name);
+    }
+    return Optional.empty();
+  }
+
+  private static void collect(Expr expression, JSObject env, List<List<Expr>> assignments, BitSet operands) {
+    switch (expression) {
+      case Block(List<Expr> instrs, int _) -> instrs.forEach(instr -> collect(instr, env, assignments, operands));
+      case Literal<?> _, LocalVarAccess _ -> {}
+      case Fun _ -> {
+        // the body of a function is compiled separately
+      }
+      case FunCall funCall -> {
+        if (operator(funCall, env).isPresent()) {
+          for (var arg : funCall.args()) {
+            if (arg instanceof LocalVarAccess(String name, int _) && env.lookup(name) instanceof Integer slot) {
+              operands.set(slot);
+            }
+          }
+        }
+        collect(funCall.qualifier(), env, assignments, operands);
+        funCall.args().forEach(arg -> collect(arg, env, assignments, operands));
+      }
+      case LocalVarAssignment(String name, Expr expr, boolean _, int _) -> {
+        if (env.lookup(name) instanceof Integer slot) {
+          assignments.get(slot).add(expr);
+        }
+        collect(expr, env, assignments, operands);
+      }
+      case Return(Expr expr, int _) -> collect(expr, env, assignments, operands);
+      case If(Expr condition, Block trueBlock, Block falseBlock, int _) -> {
+        collect(condition, env, assignments, operands);
+        collect(trueBlock, env, assignments, operands);
+        collect(falseBlock, env, assignments, operands);
+      }
+      case New(Map<String, Expr> initMap, int _) -> initMap.values().forEach(expr -> collect(expr, env, assignments, operands));
+      case FieldAccess(Expr receiver, String _, int _) -> collect(receiver, env, assignments, operands);
+      case FieldAssignment(Expr receiver, String _, Expr expr, int _) -> {
+        collect(receiver, env, assignments, operands);
+        collect(expr, env, assignments, operands);
+      }
+      case MethodCall(Expr receiver, String _, List<Expr> args, int _) -> {
+        collect(receiver, env, assignments, operands);
+        args.forEach(arg -> collect(arg, env, assignments, operands));
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package fr.umlv.smalljs.main;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newBufferedReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.umlv.smalljs.ast.Script;
+
+// runs a script several times with each interpreter, the output of the script is discarded,
+// the first run includes the compilation and the warmup, the best run is the steady state
+// run with /path/to/jdk-22/bin/java --class-path lib/tatoo-runtime.jar:target/smalljs-1.0.jar fr.umlv.smalljs.main.Benchmark samples/fibo.js 10
+public final class Benchmark {
+  // the ast interpreter is run in each of its evaluation modes
+  private static final List<String> INTERPRETERS = List.of("ast:switch", "ast:nodes", "ast:trampoline", "closure", "stack", "jvm");
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0 || args.length > 2) {
+      System.err.println("""
+            Help:
+              fr.umlv.smalljs.main.Benchmark input-file.js [iterations]
+            """);
+      System.exit(1);
+      return;
+    }
+    Script script;
+    try (var reader = newBufferedReader(Path.of(args[0]))) {
+      script = createScript(reader);
+    }
+    var iterations = args.length == 2 ? Integer.parseInt(args[1]) : 10;
+    var outStream = new PrintStream(OutputStream.nullOutputStream(), false, UTF_8);
+    for (var name : INTERPRETERS) {
+      var index = name.indexOf(':');
+      if (index != -1) {
+        System.setProperty("smalljs.ast.mode", name.substring(index + 1));
+      }
+      var interpreter = Main.interpreter(index == -1 ? name : name.substring(0, index));
+      var times = new long[iterations];
+      try {
+        for (var i = 0; i < iterations; i++) {
+          var start = System.nanoTime();
+          interpreter.accept(script, outStream);
+          times[i] = System.nanoTime() - start;
+        }
+      } catch (RuntimeException | StackOverflowError e) {
+        // an interpreter may not support the script
+        System.out.printf("%-15s failed %s%n", name, e);
+        continue;
+      }
+      System.out.printf("%-15s first %10.2f ms   best %10.2f ms%n",
+          name, times[0] / 1_000_000.0, Arrays.stream(times).min().orElseThrow() / 1_000_000.0);
+    }
+  }
+}
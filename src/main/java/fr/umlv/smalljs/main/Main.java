@@ -2,13 +2,16 @@ package fr.umlv.smalljs.main;
 
 import fr.umlv.smalljs.ast.Script;
 import fr.umlv.smalljs.astinterp.ASTInterpreter;
+import fr.umlv.smalljs.closureinterp.ClosureInterpreter;
 import fr.umlv.smalljs.jvminterp.JVMInterpreter;
+import fr.umlv.smalljs.rt.MemoCache;
 import fr.umlv.smalljs.stackinterp.StackInterpreter;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.function.BiConsumer;
 
 import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
@@ -18,9 +21,10 @@ import static java.nio.file.Files.newBufferedReader;
 
 // run with /path/to/jdk-22/bin/java --class-path lib/tatoo-runtime.jar:target/smalljs-1.0.jar fr.umlv.smalljs.main.Main ast samples/hello.js
 public final class Main {
-  private static BiConsumer<Script, PrintStream> interpreter(String name) {
+  static BiConsumer<Script, PrintStream> interpreter(String name) {
     return switch (name) {
       case "ast" -> ASTInterpreter::interpret;
+      case "closure" -> ClosureInterpreter::interpret;
       case "stack" -> StackInterpreter::interpret;
       case "jvm" -> JVMInterpreter::interpret;
       default -> throw new IllegalArgumentException("unkonwn interpreter " + name);
@@ -30,13 +34,19 @@ public final class Main {
   private static void printHelp() {
     System.err.println("""
             Help:
-              fr.umlv.smalljs.main.Main interpreter [input-file.js]
-                available interpreters: ast, stack and jvm
+              fr.umlv.smalljs.main.Main [--memoize] interpreter [input-file.js]
+                available interpreters: ast, closure, stack and jvm
+                --memoize caches the results of the pure functions and prints the cache statistics
             """);
     System.exit(1);
   }
 
   public static void main(String[] args) throws IOException {
+    var memoize = args.length != 0 && args[0].equals("--memoize");
+    if (memoize) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+      System.setProperty("smalljs.memoize", "true");
+    }
     if (args.length == 0 || args.length > 2) {
       printHelp();
       return;
@@ -47,6 +57,9 @@ public final class Main {
         var script = createScript(reader);
         interpreter.accept(script, System.out);
       }
+      if (memoize) {
+        System.err.println(MemoCache.statistics());
+      }
     } catch(RuntimeException e) {
       e.printStackTrace();
       printHelp();
@@ -0,0 +1,82 @@
+package fr.umlv.smalljs.main;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static java.nio.file.Files.readString;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+import fr.umlv.smalljs.ast.ASTCodec;
+import fr.umlv.smalljs.ast.Parser;
+import fr.umlv.smalljs.ast.Script;
+
+// parses a large script several times with the tatoo parser and with the handwritten parser
+// and decodes its binary encoding,
+// the script is either a file or generated with a number of functions
+// run with /path/to/jdk-22/bin/java --class-path lib/tatoo-runtime.jar:target/smalljs-1.0.jar fr.umlv.smalljs.main.ParserBenchmark 10000 20
+public final class ParserBenchmark {
+  // a script with all the constructions of the grammar
+  public static String generate(int functionCount) {
+    var builder = new StringBuilder();
+    for (var i = 0; i < functionCount; i++) {
+      builder.append("""
+          // function %1$d
+          function f%1$d(a, b) {
+            var o = { x: a, y: b * %1$d, name: 'f%1$d' };
+            if (a < b) {
+              o.x = o.y - (a + 1) %% 7;
+              return o.name;
+            } else {
+              print("f%1$d", a == b, a >= b);
+            }
+            var g = function(c) {
+              return c / 2;
+            };
+            return o.x + g(o.y) * f%2$d(b, a);
+          }
+          """.formatted(i, Math.max(0, i - 1)));
+    }
+    builder.append("print(f%d(1, 2));\n".formatted(functionCount - 1));
+    return builder.toString();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0 || args.length > 2) {
+      System.err.println("""
+            Help:
+              fr.umlv.smalljs.main.ParserBenchmark (input-file.js | function-count) [iterations]
+            """);
+      System.exit(1);
+      return;
+    }
+    System.setProperty("smalljs.parser", "tatoo");
+    var code = args[0].chars().allMatch(Character::isDigit) ? generate(Integer.parseInt(args[0])) : readString(Path.of(args[0]));
+    var iterations = args.length == 2 ? Integer.parseInt(args[1]) : 10;
+    System.out.printf("%d chars, %d lines%n", code.length(), code.lines().count());
+    var expected = createScript(new StringReader(code));
+    // "astcodec" is the decoding of the encoded AST, what ASTCache does instead of parsing
+    var encoded = ASTCodec.encode(expected);
+    System.out.printf("encoded AST %d bytes%n", encoded.length);
+    var parsers = new LinkedHashMap<String, Supplier<Script>>();
+    parsers.put("tatoo", () -> createScript(new StringReader(code)));
+    parsers.put("handwritten", () -> Parser.parse(code.toCharArray(), code.length()));
+    parsers.put("astcodec", () -> ASTCodec.decode(encoded));
+    parsers.forEach((name, parser) -> {
+      if (!parser.get().equals(expected)) {
+        throw new AssertionError(name + " creates a different AST");
+      }
+      var times = new long[iterations];
+      for (var i = 0; i < iterations; i++) {
+        var start = System.nanoTime();
+        parser.get();
+        times[i] = System.nanoTime() - start;
+      }
+      System.out.printf("%-15s first %10.2f ms   best %10.2f ms%n",
+          name, times[0] / 1_000_000.0, Arrays.stream(times).min().orElseThrow() / 1_000_000.0);
+    });
+  }
+}
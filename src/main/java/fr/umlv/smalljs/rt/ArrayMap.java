@@ -1,56 +1,380 @@
 package fr.umlv.smalljs.rt;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.AbstractSet;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 public final class ArrayMap extends AbstractMap<String, Object> {
+  // a node of the transition tree, a layout only stores the last key added and a pointer to its parent,
+  // so a chain of n keys uses O(n) memory.
+  // The keys are interned, so a lookup with a constant key is usually resolved by an identity check,
+  // small layouts are scanned linearly, large layouts lazily create an index.
+  // A layout references its children weakly, so the layouts that are not used anymore
+  // (by an object, an inline cache or a child) can be collected
   public static class Layout {
-    private final LinkedHashMap<String, Integer> slotMap;
-    private final HashMap<String, Layout> forwardMap = new HashMap<>();
-    
-    private Layout(LinkedHashMap<String, Integer> slotMap) {
-      this.slotMap = slotMap;
+    private static final int INDEX_THRESHOLD = 8;
+
+    private final Layout parent;  // null for the root
+    private final String key;     // null for the root
+    private final int size;
+    // the layouts are shared by all threads, the transitions are published using a concurrent map
+    // and the lazily computed fields are immutable collections, so a race only computes them twice
+    private final ConcurrentHashMap<String, Transition> forwardMap = new ConcurrentHashMap<>();
+    private List<String> keys;            // computed lazily, immutable
+    private Map<String, Integer> index;   // computed lazily, immutable
+
+    private Layout(Layout parent, String key) {
+      this.parent = parent;
+      this.key = key;
+      this.size = parent == null ? 0 : parent.size + 1;
+    }
+
+    // a layout outside of the transition tree, only used to create maps in dictionary mode
+    private Layout(List<String> keys) {
+      this.parent = null;
+      this.key = null;
+      this.size = keys.size();
+      this.keys = keys;
     }
     
     public int slot(Object key) {
-      return slotMap.getOrDefault(key, -1);
+      if (size > INDEX_THRESHOLD) {
+        return index().getOrDefault(key, -1);
+      }
+      for (var layout = this; layout.parent != null; layout = layout.parent) {
+        if (layout.key == key || layout.key.equals(key)) {
+          return layout.size - 1;
+        }
+      }
+      return -1;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    // the keys in the order of the slots
+    List<String> keys() {
+      var keys = this.keys;
+      if (keys == null) {
+        var array = new String[size];
+        for (var layout = this; layout.parent != null; layout = layout.parent) {
+          array[layout.size - 1] = layout.key;
+        }
+        keys = this.keys = List.of(array);
+      }
+      return keys;
+    }
+
+    private Map<String, Integer> index() {
+      var index = this.index;
+      if (index == null) {
+        var keys = keys();
+        var map = new HashMap<String, Integer>();
+        for (var i = 0; i < keys.size(); i++) {
+          map.put(keys.get(i), i);
+        }
+        index = this.index = Map.copyOf(map);
+      }
+      return index;
     }
 
     private Layout forward(String key) {
-      return forwardMap.computeIfAbsent(key, k -> {
-        var newSlotMap = new LinkedHashMap<>(slotMap);
-        newSlotMap.put(k, newSlotMap.size());
-        return new Layout(newSlotMap);
-      });
+      expungeStaleTransitions();
+      var transition = forwardMap.get(key);
+      if (transition != null) {
+        var layout = transition.get();
+        if (layout != null) {
+          return layout;
+        }
+      }
+      // if two threads create the same transition, only one wins
+      var newLayout = new Layout(this, key.intern());
+      var newTransition = new Transition(newLayout, this, newLayout.key);
+      for(;;) {
+        var existing = forwardMap.putIfAbsent(newLayout.key, newTransition);
+        if (existing == null) {
+          return newLayout;
+        }
+        var layout = existing.get();
+        if (layout != null) {
+          return layout;
+        }
+        // the layout of the existing transition has been collected
+        if (forwardMap.replace(newLayout.key, existing, newTransition)) {
+          return newLayout;
+        }
+      }
+    }
+  }
+
+  // a weak transition from a parent to a child layout,
+  // once the child is collected, the transition is removed from the parent
+  private static final class Transition extends WeakReference<Layout> {
+    private static final ReferenceQueue<Layout> QUEUE = new ReferenceQueue<>();
+
+    private final Layout parent;
+    private final String key;
+
+    private Transition(Layout layout, Layout parent, String key) {
+      super(layout, QUEUE);
+      this.parent = parent;
+      this.key = key;
+    }
+  }
+
+  private static void expungeStaleTransitions() {
+    for(Reference<? extends Layout> reference; (reference = Transition.QUEUE.poll()) != null;) {
+      var transition = (Transition) reference;
+      transition.parent.forwardMap.remove(transition.key, transition);
     }
   }
 
-  private static final Layout ROOT = new Layout(new LinkedHashMap<>());
+  private static void forEachLiveLayout(Consumer<? super Layout> consumer) {
+    var stack = new ArrayDeque<Layout>();
+    stack.push(ROOT);
+    while (!stack.isEmpty()) {
+      var layout = stack.pop();
+      consumer.accept(layout);
+      for (var transition : layout.forwardMap.values()) {
+        var child = transition.get();
+        if (child != null) {
+          stack.push(child);
+        }
+      }
+    }
+  }
+
+  // the number of layouts not yet collected, the root included
+  public static int liveLayoutCount() {
+    expungeStaleTransitions();
+    var count = new int[] { 0 };
+    forEachLiveLayout(_ -> count[0]++);
+    return count[0];
+  }
+
+  // the number of keys of the largest layout not yet collected
+  public static int layoutTreeDepth() {
+    expungeStaleTransitions();
+    var depth = new int[] { 0 };
+    forEachLiveLayout(layout -> depth[0] = Math.max(depth[0], layout.size));
+    return depth[0];
+  }
+
+  private static final Layout ROOT = new Layout(null, null);
   private static final Object[] EMPTY_ARRAY = new Object[0];
   
+  // the layout of the maps in dictionary mode, it contains no key
+  private static final Layout DICTIONARY = new Layout(null, null);
+  // a map with more keys switches to dictionary mode,
+  // keys are never removed so it is also the number of transitions of the map
+  private static final int DICTIONARY_THRESHOLD = 64;
+
+  // an open-addressing hash table with linear probing,
+  // the entries are stored densely in insertion order and the table stores the index of an entry + 1, 0 means empty
+  private static final class Dictionary {
+    private String[] keys;
+    private Object[] values;
+    private int size;
+    private int[] table;
+
+    private Dictionary(int capacity) {
+      capacity = Math.max(4, capacity);
+      keys = new String[capacity];
+      values = new Object[capacity];
+      table = new int[tableLength(capacity)];
+    }
+
+    private Dictionary(String[] keys, Object[] values, int size, int[] table) {
+      this.keys = keys;
+      this.values = values;
+      this.size = size;
+      this.table = table;
+    }
+
+    // a power of two, the table is at most half full
+    private static int tableLength(int capacity) {
+      return Integer.highestOneBit(capacity * 2) << 1;
+    }
+
+    private static int hash(Object key) {
+      var hash = key.hashCode();
+      return hash ^ (hash >>> 16);
+    }
+
+    private int indexOf(Object key) {
+      var mask = table.length - 1;
+      for (var i = hash(key) & mask;; i = (i + 1) & mask) {
+        var entry = table[i];
+        if (entry == 0) {
+          return -1;
+        }
+        var entryKey = keys[entry - 1];
+        if (entryKey == key || entryKey.equals(key)) {
+          return entry - 1;
+        }
+      }
+    }
+
+    private void insert(String key, int entry) {
+      var mask = table.length - 1;
+      var i = hash(key) & mask;
+      while (table[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      table[i] = entry;
+    }
+
+    private Object get(Object key) {
+      var index = indexOf(key);
+      return index == -1 ? null : values[index];
+    }
+
+    private Object put(String key, Object value) {
+      var index = indexOf(key);
+      if (index != -1) {
+        var oldValue = values[index];
+        values[index] = value;
+        return oldValue;
+      }
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+        table = new int[tableLength(keys.length)];
+        for (var i = 0; i < size; i++) {
+          insert(keys[i], i + 1);
+        }
+      }
+      keys[size] = key;
+      values[size] = value;
+      insert(key, ++size);
+      return null;
+    }
+
+    // the keys and the table are copied as is, only the values are transformed
+    private Dictionary map(Function<Object, Object> mapper) {
+      var newValues = new Object[values.length];
+      for (var i = 0; i < size; i++) {
+        newValues[i] = mapper.apply(values[i]);
+      }
+      return new Dictionary(keys.clone(), newValues, size, table.clone());
+    }
+  }
+
   private Layout layout;
-  private Object[] array = EMPTY_ARRAY;
+  private Object[] array = EMPTY_ARRAY;  // the values, the array may be longer than the layout
+  private Dictionary dictionary;  // null if not in dictionary mode
   
   ArrayMap() {
     layout = ROOT;
   }
+
+  // the array is not copied, its length must be the size of the layout,
+  // a map with more keys than the threshold is in dictionary mode, as if the keys were added one by one
+  ArrayMap(Layout layout, Object[] array) {
+    if (array.length != layout.size()) {
+      throw new IllegalArgumentException("the layout has " + layout.size() + " keys but there are " + array.length + " values");
+    }
+    this.layout = layout;
+    this.array = array;
+    if (layout.size() > DICTIONARY_THRESHOLD) {
+      toDictionary();
+    }
+  }
+
+  // an empty map already in dictionary mode, for the maps that are known to have many keys
+  static ArrayMap newDictionary() {
+    var map = new ArrayMap();
+    map.toDictionary();
+    return map;
+  }
+
+  // the layout of a map where the keys are added in order,
+  // it is the same layout as the one obtained by calling put() with each key,
+  // with more keys than the threshold, the layout is not part of the transition tree
+  // and a map created with it is in dictionary mode
+  public static Layout layout(Collection<String> keys) {
+    if (keys.size() > DICTIONARY_THRESHOLD) {
+      var keySet = new HashSet<String>();
+      for (var key : keys) {
+        if (!keySet.add(key)) {
+          throw new IllegalArgumentException("duplicate key " + key);
+        }
+      }
+      return new Layout(List.copyOf(keys));
+    }
+    var layout = ROOT;
+    for (var key : keys) {
+      if (layout.slot(key) != -1) {
+        throw new IllegalArgumentException("duplicate key " + key);
+      }
+      layout = layout.forward(key);
+    }
+    return layout;
+  }
   
   Layout layout() {
     return layout;
   }
+  // the keys and values are stored in a hash table and the layout is DICTIONARY
+  boolean isDictionary() {
+    return dictionary != null;
+  }
+  private void toDictionary() {
+    var size = layout.size();
+    var dictionary = new Dictionary(size * 2);
+    var keys = layout.keys();
+    for (var i = 0; i < size; i++) {
+      dictionary.put(keys.get(i), array[i]);
+    }
+    this.dictionary = dictionary;
+    layout = DICTIONARY;
+    array = EMPTY_ARRAY;
+  }
+
+  // a map with the same keys and the values transformed by the mapper
+  ArrayMap map(Function<Object, Object> mapper) {
+    if (dictionary != null) {
+      var map = new ArrayMap();
+      map.dictionary = dictionary.map(mapper);
+      map.layout = DICTIONARY;
+      return map;
+    }
+    var values = new Object[layout.size()];
+    for (var i = 0; i < values.length; i++) {
+      values[i] = mapper.apply(array[i]);
+    }
+    return new ArrayMap(layout, values);
+  }
   Object fastAccess(int slot) {
     return array[slot];
   }
+  void fastPut(int slot, Object value) {
+    array[slot] = value;
+  }
   
   @Override
   public Object get(Object key) {
+    if (dictionary != null) {
+      return dictionary.get(key);
+    }
     var slot = layout.slot(key);
     if (slot == -1) {
       return null;
@@ -60,50 +384,79 @@ public final class ArrayMap extends AbstractMap<String, Object> {
   
   @Override
   public Object put(String key, Object value) {
+    if (dictionary != null) {
+      return dictionary.put(key, value);
+    }
     var slot = layout.slot(key);
     if (slot != -1) {
       var oldValue = array[slot];
       array[slot] = value;
       return oldValue;
     }
+    var size = layout.size();
+    if (size >= DICTIONARY_THRESHOLD) {
+      toDictionary();
+      return dictionary.put(key, value);
+    }
+    if (size == array.length) {
+      array = Arrays.copyOf(array, Math.max(4, size * 2));
+    }
     layout = layout.forward(key);
-    array = Arrays.copyOf(array, array.length + 1);
-    array[array.length - 1] = value;
+    array[size] = value;
     return null;
   }
   
   @Override
   public int size() {
-    return array.length;
+    if (dictionary != null) {
+      return dictionary.size;
+    }
+    return layout.size();
   }
   
   @Override
   public boolean containsKey(Object key) {
+    if (dictionary != null) {
+      return dictionary.indexOf(key) != -1;
+    }
     return layout.slot(key) != -1;
   }
   
   @Override
   public Set<Entry<String, Object>> entrySet() {
-    var array = this.array;
+    var size = size();
+    IntFunction<Entry<String, Object>> entries;
+    if (dictionary != null) {
+      var keys = dictionary.keys;
+      var values = dictionary.values;
+      entries = i -> Map.entry(keys[i], values[i]);
+    } else {
+      var keys = layout.keys();
+      var array = this.array;
+      entries = i -> Map.entry(keys.get(i), array[i]);
+    }
     return new AbstractSet<>() {
       @Override
       public int size() {
-        return array.length;
+        return size;
       }
       
       @Override
       public Iterator<Entry<String, Object>> iterator() {
-        var iterator = layout.slotMap.entrySet().iterator();
         return new Iterator<>() {
+          private int index;
+
           @Override
           public boolean hasNext() {
-            return iterator.hasNext();
+            return index < size;
           }
           
           @Override
           public Entry<String, Object> next() {
-            var entry = iterator.next();
-            return Map.entry(entry.getKey(), array[entry.getValue()]);
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return entries.apply(index++);
           }
         };
       }
@@ -144,7 +497,17 @@ public final class ArrayMap extends AbstractMap<String, Object> {
 
   @Override
   public void forEach(BiConsumer<? super String, ? super Object> action) {
+    if (dictionary != null) {
+      var dictionary = this.dictionary;
+      for (var i = 0; i < dictionary.size; i++) {
+        action.accept(dictionary.keys[i], dictionary.values[i]);
+      }
+      return;
+    }
     var array = this.array;
-    layout.slotMap.forEach((key, slot) -> action.accept(key, array[slot]));
+    var keys = layout.keys();
+    for (var i = 0; i < keys.size(); i++) {
+      action.accept(keys.get(i), array[i]);
+    }
   }
 }
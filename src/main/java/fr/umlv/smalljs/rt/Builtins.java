@@ -0,0 +1,53 @@
+package fr.umlv.smalljs.rt;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static java.util.stream.Collectors.joining;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntBinaryOperator;
+
+// The builtin functions of the global env shared by the engines that interpret the AST,
+// and the builtin operators on integers these engines compute inline while an operator is not redefined.
+public final class Builtins {
+  private Builtins() {
+    throw new AssertionError();
+  }
+
+  // the builtin operators on integers
+  public static final Map<String, IntBinaryOperator> INT_OPERATORS = Map.ofEntries(
+      Map.entry("+", (a, b) -> a + b),
+      Map.entry("-", (a, b) -> a - b),
+      Map.entry("*", (a, b) -> a * b),
+      Map.entry("/", (a, b) -> a / b),
+      Map.entry("%", (a, b) -> a % b),
+      Map.entry("==", (a, b) -> a == b ? 1 : 0),
+      Map.entry("!=", (a, b) -> a != b ? 1 : 0),
+      Map.entry("<", (a, b) -> a < b ? 1 : 0),
+      Map.entry("<=", (a, b) -> a <= b ? 1 : 0),
+      Map.entry(">", (a, b) -> a > b ? 1 : 0),
+      Map.entry(">=", (a, b) -> a >= b ? 1 : 0));
+
+  @SuppressWarnings("unchecked")
+  public static JSObject createGlobalEnv(PrintStream outStream) {
+    JSObject globalEnv = JSObject.newGlobalEnv();
+    globalEnv.register("global", globalEnv);
+    globalEnv.register("print", JSObject.newFunction("print", (_, args) -> {
+      outStream.println(Arrays.stream(args).map(Object::toString).collect(joining(" ")));
+      return UNDEFINED;
+    }));
+    globalEnv.register("+", JSObject.newFunction("+", (_, args) -> (Integer) args[0] + (Integer) args[1]));
+    globalEnv.register("-", JSObject.newFunction("-", (_, args) -> (Integer) args[0] - (Integer) args[1]));
+    globalEnv.register("/", JSObject.newFunction("/", (_, args) -> (Integer) args[0] / (Integer) args[1]));
+    globalEnv.register("*", JSObject.newFunction("*", (_, args) -> (Integer) args[0] * (Integer) args[1]));
+    globalEnv.register("%", JSObject.newFunction("%", (_, args) -> (Integer) args[0] % (Integer) args[1]));
+    globalEnv.register("==", JSObject.newFunction("==", (_, args) -> args[0].equals(args[1]) ? 1 : 0));
+    globalEnv.register("!=", JSObject.newFunction("!=", (_, args) -> !args[0].equals(args[1]) ? 1 : 0));
+    globalEnv.register("<", JSObject.newFunction("<", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) < 0) ? 1 : 0));
+    globalEnv.register("<=", JSObject.newFunction("<=", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) <= 0) ? 1 : 0));
+    globalEnv.register(">", JSObject.newFunction(">", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) > 0) ? 1 : 0));
+    globalEnv.register(">=", JSObject.newFunction(">=", (_, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) >= 0) ? 1 : 0));
+    return globalEnv;
+  }
+}
@@ -0,0 +1,40 @@
+package fr.umlv.smalljs.rt;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// The file operations shared by the on-disk caches of the parsed scripts and of the generated classes,
+// a file is named by a SHA-256 hash of what it depends on.
+public final class DiskCache {
+  private DiskCache() {
+    throw new AssertionError();
+  }
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  // several processes may share the cache, so the file is written under another name and then moved,
+  // an error is ignored because the cache is only an optimization
+  public static void store(Path path, byte[] bytes) {
+    try {
+      var directory = path.getParent();
+      Files.createDirectories(directory);
+      var tmp = Files.createTempFile(directory, "cache", ".tmp");
+      Files.write(tmp, bytes);
+      Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (IOException e) {
+      // not stored
+    }
+  }
+}
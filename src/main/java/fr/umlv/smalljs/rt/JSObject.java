@@ -15,8 +15,11 @@ public final class JSObject {
   private final JSObject proto;
   private final String name;
   private final MethodHandle mh;
-  private final /*LinkedHashMap<String, Object>*/ArrayMap valueMap = new /*LinkedHashMap<>*/ArrayMap();
-  private SwitchPoint switchPoint = new SwitchPoint();
+  private final Invoker invoker;  // null if the function is defined by a method handle
+  private MethodHandle[] invokers;   // (receiver, arg0, ..., argN) -> Object, by arity
+  private MethodHandle[] spreaders;  // (receiver, Object[]) -> Object, by arity
+  private final /*LinkedHashMap<String, Object>*/ArrayMap valueMap;
+  private SwitchPoint switchPoint;  // created lazily, most objects are never observed
   
   private static final class Undefined {
   	@Override public String toString() { return "undefined"; }
@@ -32,25 +35,66 @@ public final class JSObject {
     }
   }
 
+  // the methods with a fixed arity avoid the creation of an array if they are overridden
   public interface Invoker {
     Object invoke(Object receiver, Object... args);
+
+    default Object invoke0(Object receiver) {
+      return invoke(receiver);
+    }
+    default Object invoke1(Object receiver, Object arg0) {
+      return invoke(receiver, arg0);
+    }
+    default Object invoke2(Object receiver, Object arg0, Object arg1) {
+      return invoke(receiver, arg0, arg1);
+    }
+    default Object invoke3(Object receiver, Object arg0, Object arg1, Object arg2) {
+      return invoke(receiver, arg0, arg1, arg2);
+    }
+    default Object invoke4(Object receiver, Object arg0, Object arg1, Object arg2, Object arg3) {
+      return invoke(receiver, arg0, arg1, arg2, arg3);
+    }
   }
+
+  // objects and environments share the same invoker
+  private static final Invoker OBJECT_INVOKER = (_, _) -> { throw new Failure("object can not be invoked"); };
+  private static final Invoker ENV_INVOKER = (_, _) -> { throw new Failure("env can not be invoked"); };
+  private static final MethodHandle OBJECT_MH = INVOKER.bindTo(OBJECT_INVOKER).withVarargs(true);
+  private static final MethodHandle ENV_MH = INVOKER.bindTo(ENV_INVOKER).withVarargs(true);
   
-  private JSObject(JSObject proto, String name, MethodHandle mh) {
+  private JSObject(JSObject proto, String name, MethodHandle mh, Invoker invoker, ArrayMap valueMap) {
     this.proto = proto;
     this.name = name;
     this.mh = mh;
+    this.invoker = invoker;
+    this.valueMap = valueMap;
+  }
+
+  private JSObject(JSObject proto, String name, MethodHandle mh) {
+    this(proto, name, mh, null, new ArrayMap());
   }
 
   private JSObject(JSObject proto, String name, Invoker invoker) {
-    this(proto, name, INVOKER.bindTo(invoker).withVarargs(true));
+    this(proto, name, INVOKER.bindTo(invoker).withVarargs(true), invoker, new ArrayMap());
   }
   
   public static JSObject newObject(JSObject proto) {
-    return new JSObject(proto, "object", (_, _) -> { throw new Failure("object can not be invoked"); });
+    return new JSObject(proto, "object", OBJECT_MH, OBJECT_INVOKER, new ArrayMap());
+  }
+  // create an object with all its fields at once, the values are in the order of the layout and are not copied
+  public static JSObject newObject(JSObject proto, ArrayMap.Layout layout, Object[] values) {
+    requireNonNull(layout);
+    for (var value : values) {
+      requireNonNull(value);
+    }
+    return new JSObject(proto, "object", OBJECT_MH, OBJECT_INVOKER, new ArrayMap(layout, values));
   }
   public static JSObject newEnv(JSObject parent) {
-    return new JSObject(parent, "env", (_, _) -> { throw new Failure("env can not be invoked"); });
+    return new JSObject(parent, "env", ENV_MH, ENV_INVOKER, new ArrayMap());
+  }
+  // the global env receives every global function and variable, so it starts in dictionary mode
+  public static JSObject newGlobalEnv() {
+    return new JSObject(null, "env", ENV_MH, ENV_INVOKER, ArrayMap.newDictionary());
   }
   public static JSObject newFunction(String name, Invoker invoker) {
     requireNonNull(name);
@@ -73,32 +117,153 @@ public final class JSObject {
   public MethodHandle getMethodHandle() {
     return mh;
   }
+  // null if the function is defined by a method handle
+  public Invoker getInvoker() {
+    return invoker;
+  }
   public SwitchPoint getSwitchPoint() {
+    var switchPoint = this.switchPoint;
+    if (switchPoint == null) {
+      switchPoint = this.switchPoint = new SwitchPoint();
+    }
     return switchPoint;
   }
   public ArrayMap.Layout getLayout() {
     return valueMap.layout();
   }
+  // the fields are stored in a hash table, the layout is shared by all those objects
+  public boolean isDictionary() {
+    return valueMap.isDictionary();
+  }
   public Object fastAccess(int slot) {
     return valueMap.fastAccess(slot);
   }
+  // change the value of an existing key, the slot comes from the layout of the object
+  public void fastRegister(int slot, Object value) {
+    requireNonNull(value);
+    valueMap.fastPut(slot, value);
+    invalidate();
+  }
+
+  private static final int MAX_CACHED_ARITY = 8;
+
+  private void checkArity(int arity) {
+    if (!mh.isVarargsCollector() && arity != mh.type().parameterCount() - 1) {
+      throw new Failure("arguments doesn't match parameters count " + arity + " " + (mh.type().parameterCount() - 1));
+    }
+  }
+
+  // the cached method handles are computed lazily, a race only computes the same method handle twice
+  private MethodHandle invoker(int arity) {
+    var invokers = this.invokers;
+    if (invokers == null) {
+      invokers = this.invokers = new MethodHandle[MAX_CACHED_ARITY + 1];
+    }
+    var invoker = invokers[arity];
+    if (invoker == null) {
+      checkArity(arity);
+      invoker = invokers[arity] = mh.asType(MethodType.genericMethodType(1 + arity));
+    }
+    return invoker;
+  }
+
+  private MethodHandle spreader(int arity) {
+    var spreaders = this.spreaders;
+    if (spreaders == null) {
+      spreaders = this.spreaders = new MethodHandle[MAX_CACHED_ARITY + 1];
+    }
+    var spreader = spreaders[arity];
+    if (spreader == null) {
+      spreader = spreaders[arity] = invoker(arity).asSpreader(Object[].class, arity);
+    }
+    return spreader;
+  }
+
+  private static Failure rethrow(Throwable e) {
+    switch (e) {
+      case RuntimeException runtimeException -> throw runtimeException;
+      case Error error -> throw error;
+      default -> { return new Failure(e.getMessage(), e); }
+    }
+  }
 
   public Object invoke(Object receiver, Object... args) {
     //System.err.println("invoke " + this + " " + receiver + " " + java.util.Arrays.toString(args));
     //System.err.println("invoke mh " + mh);
 
-    if (!mh.isVarargsCollector() && args.length != mh.type().parameterCount() - 1) {
-      throw new Failure("arguments doesn't match parameters count " + args.length + " " + (mh.type().parameterCount() - 1));
+    if (invoker != null) {
+      return invoker.invoke(receiver, args);
+    }
+    if (args.length > MAX_CACHED_ARITY) {
+      checkArity(args.length);
+      var array = new Object[args.length + 1];
+      array[0] = receiver;
+      System.arraycopy(args, 0, array, 1, args.length);
+      try {
+        return mh.invokeWithArguments(array);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+    try {
+      return (Object) spreader(args.length).invokeExact(receiver, args);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public Object invoke0(Object receiver) {
+    if (invoker != null) {
+      return invoker.invoke0(receiver);
+    }
+    try {
+      return (Object) invoker(0).invokeExact(receiver);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public Object invoke1(Object receiver, Object arg0) {
+    if (invoker != null) {
+      return invoker.invoke1(receiver, arg0);
     }
-    var array = new Object[args.length + 1];
-    array[0] = receiver;
-    System.arraycopy(args, 0, array, 1, args.length);
     try {
-      return mh.invokeWithArguments(array);
-    } catch(RuntimeException | Error e) {
-      throw e;
+      return (Object) invoker(1).invokeExact(receiver, arg0);
     } catch (Throwable e) {
-      throw new Failure(e.getMessage(), e);
+      throw rethrow(e);
+    }
+  }
+
+  public Object invoke2(Object receiver, Object arg0, Object arg1) {
+    if (invoker != null) {
+      return invoker.invoke2(receiver, arg0, arg1);
+    }
+    try {
+      return (Object) invoker(2).invokeExact(receiver, arg0, arg1);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public Object invoke3(Object receiver, Object arg0, Object arg1, Object arg2) {
+    if (invoker != null) {
+      return invoker.invoke3(receiver, arg0, arg1, arg2);
+    }
+    try {
+      return (Object) invoker(3).invokeExact(receiver, arg0, arg1, arg2);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  public Object invoke4(Object receiver, Object arg0, Object arg1, Object arg2, Object arg3) {
+    if (invoker != null) {
+      return invoker.invoke4(receiver, arg0, arg1, arg2, arg3);
+    }
+    try {
+      return (Object) invoker(4).invokeExact(receiver, arg0, arg1, arg2, arg3);
+    } catch (Throwable e) {
+      throw rethrow(e);
     }
   }
   
@@ -118,10 +283,15 @@ public final class JSObject {
     requireNonNull(key);
     requireNonNull(value);
     valueMap.put(key, value);
-    
+    invalidate();
+  }
+
+  private void invalidate() {
     // broadcast change, not thread safe
-    SwitchPoint.invalidateAll(new SwitchPoint[] { switchPoint });
-    switchPoint = new SwitchPoint();
+    if (switchPoint != null) {
+      SwitchPoint.invalidateAll(new SwitchPoint[] { switchPoint });
+      switchPoint = null;
+    }
   }
   
   public int length() {
@@ -130,11 +300,7 @@ public final class JSObject {
   
   public JSObject mirror(Function<Object, Object> valueMapper) {
     requireNonNull(valueMapper);
-    var mirror = newObject(null);
-    valueMap.forEach((key, value) -> {
-      mirror.register(key, valueMapper.apply(value));  
-    });
-    return mirror;
+    return new JSObject(null, "object", OBJECT_MH, OBJECT_INVOKER, valueMap.map(valueMapper));
   }
   
   @Override
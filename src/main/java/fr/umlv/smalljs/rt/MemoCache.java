@@ -0,0 +1,108 @@
+package fr.umlv.smalljs.rt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A bounded cache of the results of a pure function, keyed by its arguments if they are all Integers.
+//
+// The memoization is enabled by setting the system property "smalljs.memoize" to true,
+// each cache keeps at most "smalljs.memo.capacity" results (4096 by default)
+// and evicts the least recently used one.
+// The counters are shared by all the caches, see statistics().
+public final class MemoCache {
+  // the arguments of a function with more parameters are not packed into a key
+  public static final int MAX_ARITY = 2;
+
+  // the estimated size of an entry, a LinkedHashMap.Entry, its Long key and an Integer value
+  private static final int ENTRY_SIZE = 40 + 16 + 16;
+
+  private static long hits;
+  private static long misses;
+  private static long evictions;
+  private static long entries;
+  private static long caches;
+
+  private final LinkedHashMap<Long, Object> map;
+
+  public MemoCache() {
+    var capacity = Integer.getInteger("smalljs.memo.capacity", 4096);
+    map = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+        if (size() <= capacity) {
+          return false;
+        }
+        evictions++;
+        entries--;
+        return true;
+      }
+    };
+    caches++;
+  }
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("smalljs.memoize");
+  }
+
+  // the key of the values at the slots, null if a value is not an Integer
+  public static Long key(Object[] values, int[] slots) {
+    return switch (slots.length) {
+      case 0 -> key();
+      case 1 -> key(values[slots[0]]);
+      case 2 -> key(values[slots[0]], values[slots[1]]);
+      default -> null;
+    };
+  }
+
+  public static Long key() {
+    return 0L;
+  }
+
+  public static Long key(Object arg) {
+    return arg instanceof Integer a ? Long.valueOf(a) : null;
+  }
+
+  public static Long key(Object arg0, Object arg1) {
+    if (arg0 instanceof Integer a && arg1 instanceof Integer b) {
+      return (long) a << 32 | (b & 0xFFFF_FFFFL);
+    }
+    return null;
+  }
+
+  // returns null if there is no result for the key
+  public Object get(Long key) {
+    var value = map.get(key);
+    if (value == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return value;
+  }
+
+  public void put(Long key, Object value) {
+    if (map.put(key, value) == null) {
+      entries++;
+    }
+  }
+
+  public static String statistics() {
+    var calls = hits + misses;
+    var hitRate = calls == 0 ? 0.0 : 100.0 * hits / calls;
+    return "memo: %d caches, %d hits, %d misses (hit rate %.1f%%), %d evictions, %d entries (~%d KB)"
+        .formatted(caches, hits, misses, hitRate, evictions, entries, entries * ENTRY_SIZE / 1024);
+  }
+
+  // used by the tests
+  public static void resetStatistics() {
+    hits = misses = evictions = entries = caches = 0;
+  }
+
+  public static long hits() {
+    return hits;
+  }
+
+  public static long misses() {
+    return misses;
+  }
+}
@@ -2,11 +2,18 @@ package fr.umlv.smalljs.stackinterp;
 
 import static java.util.Objects.requireNonNull;
 
-public record Code(int[] instrs, int parameterCount, int slotCount) {
+import fr.umlv.smalljs.rt.MemoCache;
+
+// memo is the cache of the results of a pure function, null if the function is not memoized
+public record Code(int[] instrs, int parameterCount, int slotCount, MemoCache memo) {
 	public Code {
 		if (parameterCount < 1 || slotCount < 1 || parameterCount > slotCount) {
 			throw new IllegalArgumentException("invalid parameter or slot count");
 		}
 		requireNonNull(instrs);
 	}
-}
\ No newline at end of file
+
+	public Code(int[] instrs, int parameterCount, int slotCount) {
+		this(instrs, parameterCount, slotCount, null);
+	}
+}
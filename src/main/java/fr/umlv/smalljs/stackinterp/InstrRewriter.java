@@ -15,6 +15,7 @@ import static fr.umlv.smalljs.stackinterp.Instructions.*;
 import static fr.umlv.smalljs.stackinterp.TagValues.*;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 import fr.umlv.smalljs.ast.Expr;
 import fr.umlv.smalljs.ast.Expr.Block;
@@ -30,8 +31,12 @@ import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
 import fr.umlv.smalljs.ast.Expr.MethodCall;
 import fr.umlv.smalljs.ast.Expr.New;
 import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.ir.Purity;
+import fr.umlv.smalljs.ir.Resolver;
+import fr.umlv.smalljs.rt.ArrayMap;
 import fr.umlv.smalljs.rt.Failure;
 import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
 
 public final class InstrRewriter {
 	static class InstrBuffer {
@@ -67,84 +72,68 @@ public final class InstrRewriter {
 		}
 	}
 
+	// if true, the instructions of each function are printed on stderr when the function is compiled
+	private static final boolean DUMP = Boolean.getBoolean("smalljs.stack.dump");
+
+	// the body of a function not compiled yet, it is compiled on the first call, see code()
+	private record LazyCode(List<String> parameters, Block body, MemoCache memo, Dictionary dict, Set<Fun> memoized) {}
+
 	public static JSObject createFunction(Optional<String> name, List<String> parameters, Block body, Dictionary dict) {
+		return createFunction(name, parameters, body, null, dict, Purity.memoizedFunctions(body));
+	}
+
+	// the pure functions in memoized get a memo cache
+	private static JSObject createFunction(Optional<String> name, List<String> parameters, Block body, MemoCache memo, Dictionary dict, Set<Fun> memoized) {
+		var function = JSObject.newFunction(name.orElse("lambda"), (receiver, args) -> {
+			throw new Failure("native call not supported");
+		});
+		function.register("__code__", new LazyCode(parameters, body, memo, dict, memoized));
+		return function;
+	}
+
+	// returns the code of the function, compiles it on the first call, UNDEFINED for a native function
+	static Object code(JSObject function) {
+		var code = function.lookup("__code__");
+		if (code instanceof LazyCode lazyCode) {
+			// replace the stub, so the AST of the function can be garbage collected
+			var compiledCode = compile(lazyCode);
+			function.register("__code__", compiledCode);
+			return compiledCode;
+		}
+		return code;
+	}
+
+	private static Code compile(LazyCode lazyCode) {
+		var parameters = lazyCode.parameters();
+		var body = lazyCode.body();
+		var dict = lazyCode.dict();
 		var env = JSObject.newEnv(null);
 
 		env.register("this", 0);
 		for (var parameter : parameters) {
 			env.register(parameter, env.length());
 		}
-		visitVariable(body, env);
+		Resolver.declareLocals(body, env);
 
 		var buffer = new InstrBuffer();
-		visit(body, env, buffer, dict);
+		visit(body, env, buffer, dict, lazyCode.memoized());
 		buffer.emit(CONST).emit(encodeDictObject(UNDEFINED, dict));
 		buffer.emit(RET);
 
 		var instrs = buffer.toInstrs();
-		Instructions.dump(instrs, dict);
-
-		var code = new Code(instrs, parameters.size() + 1 /* this */, env.length());
-		var function = JSObject.newFunction(name.orElse("lambda"), (receiver, args) -> {
-			throw new Failure("native call not supported");
-		});
-		function.register("__code__", code);
-		return function;
-	}
-
-	private static void visitVariable(Expr expression, JSObject env) {
-		switch (expression) {
-			case Block(List<Expr> instrs, int lineNumber) -> {
-				for (Expr instr : instrs) {
-					visitVariable(instr, env);
-				}
-			}
-			case Literal<?>(Object value, int lineNumber) -> {
-				// do nothing
-			}
-			case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
-				// do nothing
-			}
-			case LocalVarAccess(String name, int lineNumber) -> {
-				// do nothing
-			}
-			case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
-				if (declaration) {
-					env.register(name, env.length());
-				}
-			}
-			case Fun(Optional<String> optName, List<String> parameters, Block body, int lineNumber) -> {
-				// do nothing
-			}
-			case Return(Expr expr, int lineNumber) -> {
-				// do nothing
-			}
-			case If(Expr condition, Block trueBlock, Block falseBlock, int lineNumber) -> {
-				visitVariable(trueBlock, env);
-				visitVariable(falseBlock, env);
-			}
-			case New(Map<String, Expr> initMap, int lineNumber) -> {
-				// do nothing
-			}
-			case FieldAccess(Expr receiver, String name, int lineNumber) -> {
-				// do nothing
-			}
-			case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
-				// do nothing
-			}
-			case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
-				// do nothing
-			}
-		};
+		if (DUMP) {
+			Instructions.dump(instrs, dict);
+		}
+		return new Code(instrs, parameters.size() + 1 /* this */, env.length(), lazyCode.memo());
 	}
 
-	private static void visit(Expr expression, JSObject env, InstrBuffer buffer, Dictionary dict) {
+	private static void visit(Expr expression, JSObject env, InstrBuffer buffer, Dictionary dict, Set<Fun> memoized) {
 		switch (expression) {
 			case Block(List<Expr> instrs, int lineNumber) -> {
 				// for each expression of the block
 				for (var instr : instrs) {
 					// visit the expression
-					visit(instr, env, buffer, dict);
+					visit(instr, env, buffer, dict, memoized);
 					// if the expression is an instruction (i.e. return void)
 					if (!(instr instanceof Instr)) {
 						// ask to top the top of the stack
@@ -165,12 +154,12 @@ public final class InstrRewriter {
 			}
 			case FunCall(Expr qualifier, List<Expr> args, int lineNumber) -> {
 				// visit the qualifier
-				visit(qualifier, env, buffer, dict);
+				visit(qualifier, env, buffer, dict, memoized);
 				// emit undefined
 				buffer.emit(CONST).emit(encodeDictObject(UNDEFINED, dict));
 				// visit all arguments
 				for (var arg : args) {
-					visit(arg, env, buffer, dict);
+					visit(arg, env, buffer, dict, memoized);
 				}
 				// emit the funcall
 				buffer.emit(FUNCALL).emit(args.size());
@@ -189,7 +178,7 @@ public final class InstrRewriter {
 			}
 			case LocalVarAssignment(String name, Expr expr, boolean declaration, int lineNumber) -> {
 				// visit the expression
-				visit(expr, env, buffer, dict);
+				visit(expr, env, buffer, dict, memoized);
 				// find if there is a local variable in the env from the name
 				var slotOrUndefined = env.lookup(name);
 				if (slotOrUndefined == UNDEFINED) {
@@ -199,8 +188,9 @@ public final class InstrRewriter {
 				buffer.emit(STORE).emit((int) slotOrUndefined);
 			}
 			case Fun(Optional<String> optName, List<String> parameters, Block body, int lineNumber) -> {
-				// create a JSObject function
-				var function = createFunction(optName, parameters, body, dict);
+				// create a JSObject function, its body is compiled on the first call
+				var memo = memoized.contains((Fun) expression) ? new MemoCache() : null;
+				var function = createFunction(optName, parameters, body, memo, dict, memoized);
 				// emit a const on the function
 				buffer.emit(CONST).emit(encodeDictObject(function, dict));
 				 //if the name is present emit a code to register the function in the global environment
@@ -211,63 +201,62 @@ public final class InstrRewriter {
 			}
 			case Return(Expr expr, int lineNumber) -> {
 				// emit a visit of the expression
-				visit(expr, env, buffer, dict);
+				visit(expr, env, buffer, dict, memoized);
 				// emit a RET
 				buffer.emit(RET);
 			}
 			case If(Expr condition, Block trueBlock, Block falseBlock, int lineNumber) -> {
 				// visit the condition
-				visit(condition, env, buffer, dict);
+				visit(condition, env, buffer, dict, memoized);
 				// emit a JUMP_IF_FALSE and a placeholder
 				var falsePlaceHolder = buffer.emit(JUMP_IF_FALSE).placeholder();
 				// visit the true block
-				visit(trueBlock, env, buffer, dict);
+				visit(trueBlock, env, buffer, dict, memoized);
 				// emit a goto with another placeholder
 				var endPlaceHolder = buffer.emit(GOTO).placeholder();
 				// patch the first placeholder
 				buffer.patch(falsePlaceHolder, buffer.label());
 				// visit the false block
-				visit(falseBlock, env, buffer, dict);
+				visit(falseBlock, env, buffer, dict, memoized);
 				// patch the second placeholder
 				buffer.patch(endPlaceHolder, buffer.label());
 			}
 			case New(Map<String, Expr> initMap, int lineNumber) -> {
-				// create a JSObject class
-				var clazz = JSObject.newObject(null);
+				// create a JSObject class, each field name is associated to its slot
+				var slots = IntStream.range(0, initMap.size()).boxed().toArray();
+				var clazz = JSObject.newObject(null, ArrayMap.layout(initMap.keySet()), slots);
 				// loop over all the field initializations
 				initMap.forEach((fieldName, expr) -> {
-				  // register the field name with the right slot
-				  clazz.register(fieldName, clazz.length());
 				   // visit the initialization expression
-				  visit(expr, env, buffer, dict);
+				  visit(expr, env, buffer, dict, memoized);
 				});
 				// emit a NEW with the class
 				buffer.emit(NEW).emit(encodeDictObject(clazz, dict));
 			}
 			case FieldAccess(Expr receiver, String name, int lineNumber) -> {
 				// visit the receiver
-				visit(receiver, env, buffer, dict);
+				visit(receiver, env, buffer, dict, memoized);
 				// emit a GET with the field name
 				buffer.emit(GET).emit(encodeDictObject(name, dict));
 			}
 			case FieldAssignment(Expr receiver, String name, Expr expr, int lineNumber) -> {
 				// visit the receiver
-				visit(receiver, env, buffer, dict);
+				visit(receiver, env, buffer, dict, memoized);
 				// visit the expression
-				visit(expr, env, buffer, dict);
+				visit(expr, env, buffer, dict, memoized);
 				// emit a PUT with the field name
 				buffer.emit(PUT).emit(encodeDictObject(name, dict));
 			}
 			case MethodCall(Expr receiver, String name, List<Expr> args, int lineNumber) -> {
 				// visit the receiver
-				visit(receiver, env, buffer, dict);
+				visit(receiver, env, buffer, dict, memoized);
 				// emit a DUP, get the field name and emit a SWAP of the qualifier and the receiver
 				buffer.emit(DUP);
 				buffer.emit(GET).emit(encodeDictObject(name, dict));
 				buffer.emit(SWAP);
 				// visit all arguments
 				for (var arg : args) {
-				  visit(arg, env, buffer, dict);
+				  visit(arg, env, buffer, dict, memoized);
 				}
 				// emit the funcall
 				buffer.emit(FUNCALL).emit(args.size());
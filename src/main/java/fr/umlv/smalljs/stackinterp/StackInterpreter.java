@@ -12,8 +12,10 @@ import java.util.stream.Collectors;
 
 import fr.umlv.smalljs.ast.Expr;
 import fr.umlv.smalljs.ast.Script;
+import fr.umlv.smalljs.ir.PassManager;
 import fr.umlv.smalljs.rt.Failure;
 import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
 
 public final class StackInterpreter {
 	private static void push(int[] stack, int sp, int value) {
@@ -63,6 +65,16 @@ public final class StackInterpreter {
 	}
 
 
+	// the key of the arguments of a call to a memoized function, null if they can not be memoized
+	private static Long memoKey(int[] stack, int baseArg, int argumentCount, Dictionary dict, int[] heap) {
+		return switch (argumentCount) {
+			case 0 -> MemoCache.key();
+			case 1 -> MemoCache.key(decodeAnyValue(stack[baseArg], dict, heap));
+			case 2 -> MemoCache.key(decodeAnyValue(stack[baseArg], dict, heap), decodeAnyValue(stack[baseArg + 1], dict, heap));
+			default -> null;
+		};
+	}
+
 	private static final int GC_OFFSET = 1;
 	private static final int GC_MARK = -1;
 	private static final int GC_EMPTY = -2;
@@ -79,7 +91,7 @@ public final class StackInterpreter {
 	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv) {
 		var stack = new int[96 /* 4096 */];
 		var heap = new int[96 /* 4096 */];
-		var code = (Code) function.lookup("__code__");
+		var code = (Code) InstrRewriter.code(function);
 		var instrs = code.instrs();
 
 		var undefined = encodeDictObject(UNDEFINED, dict);
@@ -186,8 +198,8 @@ public final class StackInterpreter {
 						System.err.println("funcall " + newFunction.getName() + " with " + receiver + " " + Arrays.toString(args));
 					}*/
 
-					// check if the function contains a code attribute
-					var maybeCode = newFunction.lookup("__code__");
+					// check if the function contains a code attribute, compile it if necessary
+					var maybeCode = InstrRewriter.code(newFunction);
 					if (maybeCode == UNDEFINED) { // native call !
 					 	// decode receiver
 						var receiver = decodeAnyValue(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, heap);
@@ -221,6 +233,16 @@ public final class StackInterpreter {
 								+ (code.parameterCount() - 1) + " but was " + argumentCount);
 					}
 
+					// a memoized function with a result for these arguments is not called
+					if (code.memo() != null && memoKey(stack, baseArg, argumentCount, dict, heap) instanceof Long key
+							&& code.memo().get(key) instanceof Object result) {
+						sp = baseArg - FUNCALL_PREFIX_SIZE;
+						push(stack, sp++, encodeAnyValue(result, dict));
+						// restore the code of the caller
+						code = (Code) function.lookup("__code__");
+						continue;
+					}
+
 					// save bp/pc/code in activation zone
 					var funcBaseArg = baseArg + RECEIVER_BASE_ARG_OFFSET;
 					var activation = funcBaseArg + code.slotCount();
@@ -245,6 +267,11 @@ public final class StackInterpreter {
 					// get the return value from the top of the stack
 					int result = pop(stack, --sp);
 
+					// a pure function never assigns its parameters, the arguments follow the receiver
+					if (code.memo() != null && memoKey(stack, bp + 1, code.parameterCount() - 1, dict, heap) instanceof Long key) {
+						code.memo().put(key, decodeAnyValue(result, dict, heap));
+					}
+
 					// find activation and restore pc
 					int activation = bp + code.slotCount();
 					pc = stack[activation + PC_OFFSET];
@@ -379,7 +406,7 @@ public final class StackInterpreter {
 					// find "print" in the global environment
 					var print = (JSObject) globalEnv.lookup("print");
 					// invoke it
-					print.invoke(UNDEFINED, new Object[]{ value });
+					print.invoke1(UNDEFINED, value);
 					// push undefined on the stack
 					push(stack, sp++, undefined);
 				}
@@ -391,7 +418,7 @@ public final class StackInterpreter {
 
 	@SuppressWarnings("unchecked")
 	public static JSObject createGlobalEnv(PrintStream outStream) {
-		JSObject globalEnv = JSObject.newEnv(null);
+		JSObject globalEnv = JSObject.newGlobalEnv();
 		globalEnv.register("global", globalEnv);
 		globalEnv.register("print", JSObject.newFunction("print", (_, args) -> {
 			System.err.println("print called with " + Arrays.toString(args));
@@ -414,7 +441,7 @@ public final class StackInterpreter {
 
 	public static void interpret(Script script, PrintStream outStream) {
 		JSObject globalEnv = createGlobalEnv(outStream);
-		Expr.Block body = script.body();
+		Expr.Block body = PassManager.lower(script);
 		Dictionary dictionary = new Dictionary();
 		JSObject function = InstrRewriter.createFunction(Optional.of("main"), List.of(), body, dictionary);
 		StackInterpreter.execute(function, dictionary, globalEnv);
@@ -0,0 +1,199 @@
+package fr.umlv.smalljs.ast;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.main.ParserBenchmark;
+
+@SuppressWarnings("static-method")
+public class ASTCodecTests {
+  private static void assertRoundTrip(String code) {
+    var script = ASTBuilder.createTatooScript(new StringReader(code));
+    assertEquals(script, ASTCodec.decode(ASTCodec.encode(script)));
+  }
+
+  @Test
+  public void allExpressions() {
+    assertRoundTrip("""
+        var o = { x: 1, y: 'text', z: -2147483648 };
+        o.x = o.y;
+        o.f(1, 2).y = 3;
+        b = -42;
+        function f(a, b) {
+          if (a < b) {
+            return a;
+          } else {
+          }
+          return function() {
+          };
+        }
+        print(f(1, 2), 2147483647, 'é', {
+        });
+        """);
+  }
+
+  @Test
+  public void generatedScript() {
+    assertRoundTrip(ParserBenchmark.generate(50));
+  }
+
+  @Test
+  public void stringsAreSharedAndSmallerThanTheSource() {
+    var code = ParserBenchmark.generate(100);
+    var once = ASTCodec.encode(ASTBuilder.createTatooScript(new StringReader("print(print, print);\n")));
+    var twice = ASTCodec.encode(ASTBuilder.createTatooScript(new StringReader("print(print, print, print);\n")));
+    // one more argument: a tag, a line number and an index in the string table
+    assertEquals(once.length + 3, twice.length);
+    assertTrue(ASTCodec.encode(ASTBuilder.createTatooScript(new StringReader(code))).length < code.length());
+  }
+
+  @Test
+  public void invalidEncoding() {
+    var encoded = ASTCodec.encode(ASTBuilder.createTatooScript(new StringReader("print('hello', 3);\n")));
+    assertThrows(IllegalArgumentException.class, () -> ASTCodec.decode(new byte[0]));
+    for (var length = 0; length < encoded.length; length++) {
+      var truncated = Arrays.copyOf(encoded, length);
+      assertThrows(IllegalArgumentException.class, () -> ASTCodec.decode(truncated));
+    }
+    var trailing = Arrays.copyOf(encoded, encoded.length + 1);
+    assertThrows(IllegalArgumentException.class, () -> ASTCodec.decode(trailing));
+    var version = encoded.clone();
+    version[0]++;
+    assertThrows(IllegalArgumentException.class, () -> ASTCodec.decode(version));
+  }
+
+  @Test
+  public void corruptedEncoding() {
+    var encoded = ASTCodec.encode(ASTBuilder.createTatooScript(new StringReader("print('hello');\n")));
+    var corrupted = encoded.clone();
+    for (var i = 0; i < corrupted.length; i++) {
+      if (corrupted[i] == 'h') {
+        corrupted[i] = 'j';
+      }
+    }
+    assertThrows(IllegalArgumentException.class, () -> ASTCodec.decode(corrupted));
+  }
+
+  private static Script nested(int depth) {
+    // the block and the literal are part of the depth
+    Expr expr = new Literal<>(1, 1);
+    for (var i = 0; i < depth - 2; i++) {
+      expr = new Return(expr, 1);
+    }
+    return new Script(new Block(List.of(expr), 1));
+  }
+
+  // the encoder rejects a tree deeper than MAX_DEPTH,
+  // so a Return is inserted before the first instruction of the block of an encoding
+  private static byte[] deeper(byte[] encoded) {
+    // the version and the CRC32 take 5 bytes, the content starts with no string then the tag,
+    // the line and the size of the block
+    var content = new byte[encoded.length - 5 + 2];
+    System.arraycopy(encoded, 5, content, 0, 4);
+    content[4] = 9;  // RETURN
+    content[5] = 0;  // same line
+    System.arraycopy(encoded, 9, content, 6, encoded.length - 9);
+    var checksum = new CRC32();
+    checksum.update(content);
+    var value = (int) checksum.getValue();
+    var deeper = new byte[content.length + 5];
+    deeper[0] = (byte) ASTCodec.VERSION;
+    for (var i = 0; i < 4; i++) {
+      deeper[1 + i] = (byte) (value >>> (24 - 8 * i));
+    }
+    System.arraycopy(content, 0, deeper, 5, content.length);
+    return deeper;
+  }
+
+  @Test
+  public void tooDeeplyNestedEncoding() {
+    // the equals of the records is recursive too, so the encodings are compared
+    var maxDepth = ASTCodec.encode(nested(ASTCodec.MAX_DEPTH));
+    assertArrayEquals(maxDepth, ASTCodec.encode(ASTCodec.decode(maxDepth)));
+    assertThrows(IllegalArgumentException.class, () -> ASTCodec.encode(nested(ASTCodec.MAX_DEPTH + 1)));
+    var encoded = deeper(maxDepth);
+    assertArrayEquals(deeper(ASTCodec.encode(nested(ASTCodec.MAX_DEPTH - 1))), maxDepth);
+    assertThrows(IllegalArgumentException.class, () -> ASTCodec.decode(encoded));
+  }
+
+  // print(1 + 1 + ... + 1), the left operand of an operator is nested
+  private static Script operatorChain(int terms) {
+    Expr expr = new Literal<>(1, 1);
+    for (var i = 1; i < terms; i++) {
+      expr = new FunCall(new LocalVarAccess("+", 1), List.of(expr, new Literal<>(1, 1)), 1);
+    }
+    return new Script(new Block(List.of(new FunCall(new LocalVarAccess("print", 1), List.of(expr), 1)), 1));
+  }
+
+  @Test
+  public void deepOperatorChain() {
+    // the block, the call to print and the last literal are part of the depth
+    var encoded = ASTCodec.encode(operatorChain(ASTCodec.MAX_DEPTH - 2));
+    assertArrayEquals(encoded, ASTCodec.encode(ASTCodec.decode(encoded)));
+    assertThrows(IllegalArgumentException.class, () -> ASTCodec.encode(operatorChain(1_500)));
+  }
+
+  @Test
+  public void tooDeeplyNestedScriptIsNotCached() throws IOException {
+    var script = operatorChain(1_500);
+    var directory = Files.createTempDirectory("astcache");
+    System.setProperty("smalljs.astcache", directory.toString());
+    try {
+      assertSame(script, ASTCache.getOrParse(new StringReader("print(1 + 1)"), _ -> script));
+      try (var stream = Files.list(directory)) {
+        assertEquals(List.of(), stream.toList());
+      }
+    } finally {
+      System.clearProperty("smalljs.astcache");
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void cacheOnDisk() throws IOException {
+    var code = "var a = 3;\nprint(a + 1);\n";
+    var directory = Files.createTempDirectory("astcache");
+    System.setProperty("smalljs.astcache", directory.toString());
+    try {
+      var expected = ASTBuilder.createTatooScript(new StringReader(code));
+      assertEquals(expected, ASTBuilder.createScript(new StringReader(code)));
+      List<Path> files;
+      try (var stream = Files.list(directory)) {
+        files = stream.toList();
+      }
+      assertEquals(List.of(directory.resolve(ASTCache.hash(code) + ".ast")), files);
+      assertEquals(expected, ASTBuilder.createScript(new StringReader(code)));
+
+      // a corrupted file is parsed again and replaced
+      Files.write(files.get(0), new byte[] { 42 });
+      assertEquals(expected, ASTBuilder.createScript(new StringReader(code)));
+      assertEquals(expected, ASTCodec.decode(Files.readAllBytes(files.get(0))));
+    } finally {
+      System.clearProperty("smalljs.astcache");
+      try (var stream = Files.list(directory)) {
+        for (var file : stream.toList()) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+}
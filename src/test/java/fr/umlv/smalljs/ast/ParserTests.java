@@ -0,0 +1,164 @@
+package fr.umlv.smalljs.ast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+import fr.umlv.smalljs.main.ParserBenchmark;
+import fr.umlv.smalljs.rt.Failure;
+
+@SuppressWarnings("static-method")
+public class ParserTests {
+  // the handwritten parser must create the same AST as the tatoo parser, line numbers included
+  private static void assertSameScript(String code) {
+    var expected = ASTBuilder.createTatooScript(new StringReader(code));
+    assertEquals(expected, Parser.parse(new StringReader(code)));
+  }
+
+  // both parsers reject the code
+  private static void assertBothFail(String code) {
+    assertThrows(RuntimeException.class, () -> ASTBuilder.createTatooScript(new StringReader(code)));
+    assertThrows(Failure.class, () -> Parser.parse(new StringReader(code)));
+  }
+
+  @Test
+  public void instructions() {
+    assertSameScript("""
+        var a = 3;
+        b = 'hello'
+        print(a, b);
+        o.x = 4;
+        o.f(1).y = 2
+        return a
+        """);
+  }
+
+  @Test
+  public void ifElse() {
+    assertSameScript("""
+        if (a < 2) {
+          print(1);
+        } else {
+          if (b) {
+          } else {
+          }
+        }
+        """);
+  }
+
+  @Test
+  public void operators() {
+    assertSameScript("""
+        print(1 + 2 * 3 - 4 / 5 % 6);
+        print(a == b != c < d <= e > f >= g);
+        print((1 + 2) * 3);
+        print(a.b + c.d(1) * f(2)(3));
+        """);
+  }
+
+  @Test
+  public void operatorCharactersInAnIdentifier() {
+    assertSameScript("""
+        print(a+b, -1, 1+2);
+        print(x +y);
+        function +(a, b) {
+          return a;
+        }
+        """);
+  }
+
+  @Test
+  public void functions() {
+    assertSameScript("""
+        function f(a, b) {
+          return a;
+        }
+        var g = function(
+          a) {
+        };
+        var h = function() {
+
+        };
+        print(function() { return 1; }());
+        """);
+  }
+
+  @Test
+  public void objects() {
+    assertSameScript("""
+        var o = {
+          x: 1,
+          y: { z: 'text' }
+        };
+        var empty = {
+        };
+        print(o.y.z, { a: 1, a: 2 }, { b: 1, b: 2, b: 3 });
+        """);
+  }
+
+  @Test
+  public void textOnSeveralLines() {
+    assertSameScript("""
+        print('first
+        second', "third");
+        if ("a
+        b") {
+        } else {
+        }
+        """);
+  }
+
+  @Test
+  public void commentsAndBlanks() {
+    assertSameScript("""
+        // a comment
+        print(
+          1
+        );
+        \t
+        print(2);\r
+        // another comment
+        """);
+  }
+
+  @Test
+  public void generatedScript() {
+    assertSameScript(ParserBenchmark.generate(100));
+  }
+
+  @Test
+  public void endOfLineIsRequired() {
+    assertBothFail("print(1)");
+    assertBothFail("print(1) // comment\n");
+  }
+
+  @Test
+  public void endOfLineAfterABinaryOperation() {
+    // the LR parser sees an end of instruction here
+    assertBothFail("print(1 + 2\n);\n");
+    assertBothFail("print(o.x\n);\n");
+    assertSameScript("print(f(1)\n);\n");
+  }
+
+  @Test
+  public void syntaxErrors() {
+    assertBothFail("var o = {x:1};\n");
+    assertBothFail("print(1,);\n");
+    assertBothFail("(a.b) = 1;\n");
+    assertBothFail("if (a) {\n}\n");
+  }
+
+  @Test
+  public void createScriptWithTheHandwrittenParser() {
+    var code = "print(1 + 2);\n";
+    System.setProperty("smalljs.parser", "handwritten");
+    try {
+      assertEquals(ASTBuilder.createTatooScript(new StringReader(code)), ASTBuilder.createScript(new StringReader(code)));
+    } finally {
+      System.clearProperty("smalljs.parser");
+    }
+  }
+}
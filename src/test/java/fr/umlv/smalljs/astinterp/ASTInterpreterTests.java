@@ -1,30 +1,49 @@
 package fr.umlv.smalljs.astinterp;
 
 import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import fr.umlv.smalljs.ir.PassManager;
+import fr.umlv.smalljs.ir.Resolver;
+import fr.umlv.smalljs.rt.Builtins;
 import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
 
 @SuppressWarnings("static-method")
 public class ASTInterpreterTests {
-  private static String execute(String code) {
+  private static String execute(String code, String mode) {
     var script = createScript(new StringReader(code));
     var outStream = new ByteArrayOutputStream(8192);
-    ASTInterpreter.interpret(script, new PrintStream(outStream, false, UTF_8));
+    ASTInterpreter.interpret(script, new PrintStream(outStream, false, UTF_8), mode);
     return outStream.toString(UTF_8).replace("\r\n", "\n");
   }
 
+  // all the evaluation modes must print the same thing
+  private static String execute(String code) {
+    var output = execute(code, "nodes");
+    assertEquals(output, execute(code, "switch"));
+    assertEquals(output, execute(code, "trampoline"));
+    return output;
+  }
+
 
   @Tag("Q2") @Test
   public void helloString() {
@@ -391,4 +410,253 @@ public class ASTInterpreterTests {
                 object.foo(42);
                 """));
   }
-}
\ No newline at end of file
+
+  @Tag("Q12") @Test
+  public void functionReadsTheLocalVariablesOfTheEnclosingFunction() {
+    assertEquals(
+        "3\n",
+        execute("""
+                function outer(a) {
+                  var b = 2;
+                  function inner() {
+                    return a + b;
+                  }
+                  return inner();
+                }
+                print(outer(1));
+                """));
+  }
+
+  @Tag("Q12") @Test
+  public void localVariableIsGlobalUntilAssigned() {
+    assertEquals(
+        "1\n2\n1\n",
+        execute("""
+                var x = 1;
+                function f() {
+                  print(x);
+                  x = 2;
+                  print(x);
+                }
+                f();
+                print(x);
+                """));
+  }
+
+  @Tag("Q12") @Test
+  public void eachCallHasItsOwnFrame() {
+    assertEquals(
+        "1\n2\n6\n24\n120\n120\n",
+        execute("""
+                function fact(n) {
+                  var result = 1;
+                  if (n > 1) {
+                    result = n * fact(n - 1);
+                  } else {
+                    result = 1;
+                  }
+                  print(result);
+                  return result;
+                }
+                print(fact(5));
+                """));
+  }
+
+  @Tag("Q12") @Test
+  public void specializedNodesAreReplacedWhenAGuardFails() {
+    assertEquals(
+        "1 2 1\n1 3 5\n3 3\n",
+        execute("""
+                function apply(f) {
+                  return f();
+                }
+                function one() {
+                  return 1;
+                }
+                function two() {
+                  return 2;
+                }
+                print(apply(one), apply(two), apply(one));
+                function get(o) {
+                  return o.x;
+                }
+                var a = { x: 1 };
+                var b = { y: 2, x: 3 };
+                a.x = 5;
+                print(get({ x: 1 }), get(b), get(a));
+                function add(u, v) {
+                  return u + v;
+                }
+                var c = add(1, 2);
+                function +(u, v) {
+                  return 3;
+                }
+                print(c, add(1, 1));
+                """));
+  }
+
+  // the nodes of the tree in depth first order, each child must know its parent
+  private static void collectNodes(NodeCompiler.Node node, List<NodeCompiler.Node> nodes) throws IllegalAccessException {
+    nodes.add(node);
+    for (Class<?> type = node.getClass(); type != NodeCompiler.Node.class; type = type.getSuperclass()) {
+      for (var field : type.getDeclaredFields()) {
+        field.setAccessible(true);
+        var children = switch (field.get(node)) {
+          case NodeCompiler.Node child -> List.of(child);
+          case NodeCompiler.Node[] array -> List.of(array);
+          case null, default -> List.<NodeCompiler.Node>of();
+        };
+        for (var child : children) {
+          assertSame(node, child.parent);
+          collectNodes(child, nodes);
+        }
+      }
+    }
+  }
+
+  @Tag("Q12") @Test
+  public void nodeTreeIsStableAfterADeoptimizationInARecursiveCall() throws IllegalAccessException {
+    var script = createScript(new StringReader("""
+        function f(n) {
+          if (n < 1) {
+            return 'a';
+          } else {
+          }
+          return (f(n - 1) == 'a') + (f(n - 1) == 'a');
+        }
+        print(f(3));
+        """));
+    var globalEnv = Builtins.createGlobalEnv(new PrintStream(new ByteArrayOutputStream(), false, UTF_8));
+    var body = PassManager.lower(script);
+    var root = NodeCompiler.compile(body, new ASTInterpreter.Context(Resolver.resolve(body), globalEnv, Set.of()));
+    root.execute(null);
+    var nodes = new ArrayList<NodeCompiler.Node>();
+    collectNodes(root, nodes);
+
+    var f = (JSObject) globalEnv.lookup("f");
+    assertEquals(0, f.invoke1(UNDEFINED, 3));
+    var nodesAfter = new ArrayList<NodeCompiler.Node>();
+    collectNodes(root, nodesAfter);
+    assertEquals(nodes.size(), nodesAfter.size());
+    for (var i = 0; i < nodes.size(); i++) {
+      assertSame(nodes.get(i), nodesAfter.get(i));
+    }
+  }
+
+  @Tag("Q12") @Test
+  public void nodeReplacedDuringARecursiveExecutionOfItself() {
+    // the innermost call replaces the == node, the outer calls still execute the old one
+    assertEquals(
+        "1\n",
+        execute("""
+                function f(n) {
+                  if (n < 1) {
+                    return 'a';
+                  } else {
+                  }
+                  return (f(n - 1) == 'a') + 1;
+                }
+                print(f(3));
+                """));
+  }
+
+  @Tag("Q12") @Test
+  public void returnSkipsTheRestOfTheFunction() {
+    assertEquals(
+        "1\n2\n2\n",
+        execute("""
+                function f(n) {
+                  if (n == 1) {
+                    return 1;
+                  } else {
+                    print(n);
+                  }
+                  return n;
+                  print("unreachable");
+                }
+                print(f(1));
+                print(f(2));
+                """));
+  }
+
+  @Tag("Q12") @Test
+  public void deepRecursionWithTheTrampoline() {
+    assertEquals(
+        "1250025000\n",
+        execute("""
+                function sum(n) {
+                  if (n == 0) {
+                    return 0;
+                  } else {
+                    return n + sum(n - 1);
+                  }
+                }
+                print(sum(50000));
+                """, "trampoline"));
+  }
+
+  @Tag("Q12") @Test
+  public void trampolineStackIsLimited() {
+    System.setProperty("smalljs.ast.maxStack", "1000");
+    try {
+      assertThrows(Failure.class, () -> execute("""
+                function loop(n) {
+                  return loop(n + 1);
+                }
+                loop(0);
+                """, "trampoline"));
+    } finally {
+      System.clearProperty("smalljs.ast.maxStack");
+    }
+  }
+
+  @Test
+  public void memoizedPureFunction() {
+    System.setProperty("smalljs.memoize", "true");
+    MemoCache.resetStatistics();
+    try {
+      assertEquals("165580141\n1\n1\n", execute("""
+                function fibo(n) {
+                  if (n < 2) {
+                    return 1;
+                  } else {
+                    return fibo(n - 1) + fibo(n - 2);
+                  }
+                }
+                function log(n) {
+                  print(n);
+                  return n;
+                }
+                print(fibo(40));
+                log(1);
+                log(1);
+                """));
+      assertTrue(MemoCache.hits() > 0);
+    } finally {
+      System.clearProperty("smalljs.memoize");
+    }
+  }
+
+  @Test
+  public void functionReadingAGlobalThroughAnUnassignedLocalIsNotMemoized() {
+    System.setProperty("smalljs.memoize", "true");
+    try {
+      // x is local to f but not yet assigned, so the global x is read
+      assertEquals("1\n2\n", execute("""
+                var x = 1;
+                function f(n) {
+                  if (n < 0) {
+                    var x = 5;
+                  } else {
+                  }
+                  return x;
+                }
+                print(f(0));
+                x = 2;
+                print(f(0));
+                """));
+    } finally {
+      System.clearProperty("smalljs.memoize");
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package fr.umlv.smalljs.ir;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+
+@SuppressWarnings("static-method")
+public class PassManagerTests {
+  private static Block parse(String code) {
+    return createScript(new StringReader(code)).body();
+  }
+
+  private static Block optimize(String code) {
+    return PassManager.defaultPasses().run(parse(code));
+  }
+
+  @Test
+  public void foldArithmetic() {
+    assertEquals(parse("print(7);\n"), optimize("print(1 + 2 * 3);\n"));
+  }
+
+  @Test
+  public void foldArithmeticInsideAFunction() {
+    assertEquals(
+        parse("function f(a) {\n  return a + 6;\n}\n"),
+        optimize("function f(a) {\n  return a + (2 * 3);\n}\n"));
+  }
+
+  @Test
+  public void redefinedOperatorIsNotFolded() {
+    var code = """
+        function +(a, b) {
+          return a;
+        }
+        print(1 + 2);
+        """;
+    assertEquals(parse(code), optimize(code));
+  }
+
+  @Test
+  public void overflowAndDivisionByZeroAreNotFolded() {
+    var code = """
+        print(2147483647 + 1);
+        print(1 / 0);
+        """;
+    assertEquals(parse(code), optimize(code));
+  }
+
+  @Test
+  public void comparisonIsNotFoldedOutsideACondition() {
+    var code = "print(1 < 2);\n";
+    assertEquals(parse(code), optimize(code));
+  }
+
+  @Test
+  public void foldBranch() {
+    var code = """
+        if (1 < 2) {
+          print(1);
+        } else {
+          print(2);
+        }
+        """;
+    assertEquals(parse("\nprint(1);\n"), optimize(code));
+  }
+
+  @Test
+  public void foldBranchOfAFoldedCondition() {
+    var code = """
+        if (1 + 1 == 3) {
+          print(1);
+        } else {
+          print(2);
+        }
+        """;
+    assertEquals(parse("\n\n\nprint(2);\n"), optimize(code));
+  }
+
+  @Test
+  public void foldBranchKeepsTheDeclarationsOfTheOtherBranch() {
+    var code = """
+        if (1 < 2) {
+          print(1);
+        } else {
+          var a = f();
+        }
+        """;
+    var body = parse(code);
+    var ifExpr = (If) body.instrs().getFirst();
+    var declaration = new LocalVarAssignment("a", new Literal<>(0, 4), true, 4);
+    var expected = new Block(List.of(
+        ifExpr.trueBlock().instrs().getFirst(),
+        new If(new Literal<>(1, 1), new Block(List.of(), 1), new Block(List.of(declaration), ifExpr.falseBlock().lineNumber()), 1)),
+        body.lineNumber());
+    var optimized = PassManager.defaultPasses().run(body);
+    assertEquals(expected, optimized);
+    assertSame(optimized, PassManager.defaultPasses().run(optimized));
+  }
+
+  @Test
+  public void literalZeroConditionIsNotFolded() {
+    var code = """
+        if (0) {
+          print(1);
+        } else {
+          print(2);
+        }
+        """;
+    assertEquals(parse(code), optimize(code));
+  }
+
+  @Test
+  public void removeDeadCodeAfterReturn() {
+    var code = """
+        function f() {
+          return 1;
+          print(2);
+        }
+        """;
+    assertEquals(parse("function f() {\n  return 1;\n}\n"), optimize(code));
+  }
+
+  @Test
+  public void removeDeadCodeKeepsTheDeclarations() {
+    var code = """
+        function f() {
+          return 1;
+          var a = g();
+          function h() {
+            print(2);
+          }
+          print(3);
+        }
+        """;
+    var expected = """
+        function f() {
+          return 1;
+          var a = 0;
+          function h() {
+          }
+        }
+        """;
+    var optimized = optimize(code);
+    assertEquals(parse(expected), optimized);
+    assertSame(optimized, PassManager.defaultPasses().run(optimized));
+  }
+
+  @Test
+  public void removeDeadCodeAfterAnIfThatAlwaysReturns() {
+    var code = """
+        function f(a) {
+          if (a) {
+            return 1;
+          } else {
+            return 2;
+          }
+          print(3);
+        }
+        """;
+    var expected = """
+        function f(a) {
+          if (a) {
+            return 1;
+          } else {
+            return 2;
+          }
+        }
+        """;
+    assertEquals(parse(expected), optimize(code));
+  }
+
+  @Test
+  public void unchangedBodyIsNotRebuilt() {
+    var body = parse("var a = 1;\nprint(a + 2);\n");
+    assertSame(body, PassManager.defaultPasses().run(body));
+  }
+}
@@ -0,0 +1,190 @@
+package fr.umlv.smalljs.ir;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringReader;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import fr.umlv.smalljs.ast.Expr.Fun;
+
+@SuppressWarnings("static-method")
+public class PurityTests {
+  private static Set<String> pureFunctions(String code) {
+    var body = createScript(new StringReader(code)).body();
+    return Purity.pureFunctions(body).stream().map(fun -> fun.optName().orElseThrow()).collect(toSet());
+  }
+
+  @Test
+  public void recursiveFunctionIsPure() {
+    var code = """
+        function fibo(n) {
+          if (n < 2) {
+            return 1;
+          } else {
+            return fibo(n - 1) + fibo(n - 2);
+          }
+        }
+        """;
+    assertEquals(Set.of("fibo"), pureFunctions(code));
+  }
+
+  @Test
+  public void functionWithLocalVariablesIsPure() {
+    var code = """
+        function square(n) {
+          var result = n * n;
+          return result;
+        }
+        """;
+    assertEquals(Set.of("square"), pureFunctions(code));
+  }
+
+  @Test
+  public void mutuallyRecursiveFunctionsArePure() {
+    var code = """
+        function even(n) {
+          if (n == 0) {
+            return 1;
+          } else {
+            return odd(n - 1);
+          }
+        }
+        function odd(n) {
+          if (n == 0) {
+            return 0;
+          } else {
+            return even(n - 1);
+          }
+        }
+        """;
+    assertEquals(Set.of("even", "odd"), pureFunctions(code));
+  }
+
+  @Test
+  public void printIsNotPure() {
+    var code = """
+        function f(n) {
+          print(n);
+          return n;
+        }
+        function g(n) {
+          return f(n);
+        }
+        """;
+    assertEquals(Set.of(), pureFunctions(code));
+  }
+
+  @Test
+  public void readOfAGlobalIsNotPure() {
+    var code = """
+        var a = 3;
+        function f(n) {
+          return n + a;
+        }
+        """;
+    assertEquals(Set.of(), pureFunctions(code));
+  }
+
+  @Test
+  public void readOfALocalVariableNotYetAssignedIsNotPure() {
+    // the first read of x sees the global x
+    var code = """
+        var x = 1;
+        function f(n) {
+          var y = x;
+          var x = n;
+          return y;
+        }
+        function g(n) {
+          if (n < 0) {
+            var z = 1;
+          } else {
+          }
+          return z;
+        }
+        function h(n) {
+          if (n < 0) {
+            var z = 1;
+          } else {
+            var z = 2;
+          }
+          return z;
+        }
+        """;
+    assertEquals(Set.of("h"), pureFunctions(code));
+  }
+
+  @Test
+  public void assignmentOfAParameterIsNotPure() {
+    var code = """
+        function f(n) {
+          n = n + 1;
+          return n;
+        }
+        """;
+    assertEquals(Set.of(), pureFunctions(code));
+  }
+
+  @Test
+  public void objectIsNotPure() {
+    var code = """
+        function f(o) {
+          return o.x;
+        }
+        function g(n) {
+          return { x: n };
+        }
+        """;
+    assertEquals(Set.of(), pureFunctions(code));
+  }
+
+  @Test
+  public void redefinedFunctionIsNotPure() {
+    var code = """
+        function f(n) {
+          return n;
+        }
+        function f(n) {
+          return n + 1;
+        }
+        """;
+    assertEquals(Set.of(), pureFunctions(code));
+  }
+
+  @Test
+  public void redefinedOperatorIsNotPure() {
+    var code = """
+        function +(a, b) {
+          print(a);
+          return a;
+        }
+        function f(n) {
+          return n + 1;
+        }
+        """;
+    assertEquals(Set.of(), pureFunctions(code));
+  }
+
+  @Test
+  public void innerFunctionIsNotACandidate() {
+    var code = """
+        function f(n) {
+          function g(m) {
+            return m;
+          }
+          return n;
+        }
+        """;
+    assertEquals(Set.of(), pureFunctions(code));
+  }
+
+  @Test
+  public void memoizedFunctionsAreEmptyIfTheMemoizationIsDisabled() {
+    var body = createScript(new StringReader("function f(n) {\n  return n;\n}\n")).body();
+    assertEquals(Set.<Fun>of(), Purity.memoizedFunctions(body));
+  }
+}
@@ -1,20 +1,29 @@
 package fr.umlv.smalljs.jvminterp;
 
 import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static java.lang.invoke.MethodType.methodType;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
 import java.lang.invoke.WrongMethodTypeException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
 import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.rt.MemoCache;
 import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
 
@@ -59,6 +68,34 @@ public class JVMInterpreterTests {
     assertEquals("1\n", execute("print(3 / 2)\n"));
   }
 
+  @Tag("Q6") @Test
+  public void printOperationsOverflow() {
+    assertEquals("-2147483648\n", execute("print(2147483647 + 1)\n"));
+    assertEquals("2147483647\n", execute("print(0 - 2147483647 - 2)\n"));
+  }
+  @Tag("Q6") @Test
+  public void printComparisons() {
+    assertEquals("true\nfalse\ntrue\nfalse\n", execute("""
+            print(1 < 2);
+            print(2 <= 1);
+            print('a' < 'b');
+            print(1 == 'a');
+            """));
+  }
+  @Tag("Q6") @Test
+  public void printOperationsRedefined() {
+    assertEquals("3\n42\n", execute("""
+            function add(a, b) {
+              return a + b;
+            }
+            print(add(1, 2));
+            function +(a, b) {
+              return 42;
+            }
+            print(add(1, 2));
+            """));
+  }
+
   @Tag("Q7") @Test
   public void printPrint3() {
     assertEquals("3\nundefined\n", execute("print(print(3))\n"));
@@ -204,6 +241,29 @@ public class JVMInterpreterTests {
             print(b);"""));
   }
   @Tag("Q11") @Test
+  public void printVariableDeclaredInCodeNeverExecuted() {
+    assertEquals("undefined\n2\nundefined\nglobal\n", execute("""
+            var a = 'global';
+            function f() {
+              print(a);
+              a = 2;
+              print(a);
+              return a;
+              var a = 0;
+            }
+            function g() {
+              print(a);
+              if (1 < 2) {
+                return 3;
+              } else {
+                var a = 1;
+              }
+            }
+            f();
+            g();
+            print(a);"""));
+  }
+  @Tag("Q11") @Test
   public void callAUserDefinedFunctionWithAnIf() {
     assertEquals("0\n7\n", execute("""
             function f(x) {
@@ -283,6 +343,277 @@ public class JVMInterpreterTests {
             """));
   }
 
+  @Tag("Q12") @Test
+  public void callWithIntLocalVariables() {
+    assertEquals("11\n0\n", execute("""
+            function f(n) {
+              var a = n * 2;
+              var b = a + 1;
+              if (b < 12) {
+                return b;
+              } else {
+                return 0;
+              }
+            }
+            print(f(5));
+            print(f(6));
+            """));
+  }
+  @Tag("Q12") @Test
+  public void callWithAParameterThatIsNotAnInt() {
+    assertEquals("true\ntrue\nfalse\n", execute("""
+            function lt(a, b) {
+              return a < b;
+            }
+            print(lt(1, 2));
+            print(lt('a', 'b'));
+            print(lt(2, 1));
+            """));
+  }
+  @Tag("Q12") @Test
+  public void callWithALocalVariableNotAlwaysAssigned() {
+    assertEquals("1\nundefined\n", execute("""
+            function g(x) {
+              if (x < 3) {
+                var a = x + 1;
+              } else {
+              }
+              return a;
+            }
+            print(g(0));
+            print(g(5));
+            """));
+  }
+  @Tag("Q12") @Test
+  public void callWithIntLocalVariablesAndRedefinedOperator() {
+    assertEquals("2\nx\n", execute("""
+            function f(n) {
+              var a = n + 1;
+              return a;
+            }
+            print(f(1));
+            function +(a, b) {
+              return 'x';
+            }
+            print(f(1));
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callWithIntLocalVariablesAndOperatorRedefinedDuringTheCall() {
+    assertEquals("2 x\nundefined 2 x\nx\n", execute("""
+            function redefine() {
+              function +(a, b) {
+                return 'x';
+              }
+            }
+            function f(n) {
+              var a = n + 1;
+              var r = redefine;
+              r();
+              var b = n + 1;
+              print(a, b);
+              print(r(), a, n + 1);
+              return b;
+            }
+            var g = f;
+            print(g(1));
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callWithIntLocalVariablesAndOperatorRedefinedInABlock() {
+    assertEquals("7 7\n7\n", execute("""
+            function redefine() {
+              function *(a, b) {
+                return 7;
+              }
+            }
+            function f(n) {
+              var a = n * 2;
+              if (n < 5) {
+                var r = redefine;
+                r();
+                var b = a * 2;
+                print(a * 3, b);
+              } else {
+              }
+              return a * 1;
+            }
+            var g = f;
+            print(g(1));
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callFiboWithAClassCache() throws IOException {
+    var directory = Files.createTempDirectory("smalljs");
+    System.setProperty("smalljs.classcache", directory.toString());
+    try {
+      var code = """
+            function fibo(n) {
+              if (n < 2) {
+                return 1
+              } else {
+                return fibo(n - 1) + fibo(n - 2)
+              }
+            }
+            print(fibo(7))
+            """;
+      assertEquals("21\n", execute(code));
+      try (var files = Files.list(directory)) {
+        assertEquals(1, files.count());
+      }
+      assertEquals("21\n", execute(code));
+    } finally {
+      System.clearProperty("smalljs.classcache");
+    }
+  }
+
+  @Tag("Q12") @Test
+  public void callMutuallyRecursiveFunctions() {
+    assertEquals("1\n0\n", execute("""
+            function isEven(n) {
+              if (n == 0) {
+                return 1
+              } else {
+                return isOdd(n - 1)
+              }
+            }
+            function isOdd(n) {
+              if (n == 0) {
+                return 0
+              } else {
+                return isEven(n - 1)
+              }
+            }
+            print(isEven(10))
+            print(isOdd(10))
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callAFunctionDeclaredTwice() {
+    assertEquals("1\n2\n", execute("""
+            function f() {
+              return 1
+            }
+            function g() {
+              return f()
+            }
+            print(g())
+            function f() {
+              return 2
+            }
+            print(g())
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callATailRecursiveFunction() {
+    assertEquals("1000000\n", execute("""
+            function loop(n, acc) {
+              if (n == 0) {
+                return acc
+              } else {
+                return loop(n - 1, acc + 1)
+              }
+            }
+            print(loop(1000000, 0))
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callATailRecursiveFunctionWithAString() {
+    assertEquals("a\n", execute("""
+            function last(n, x) {
+              if (n == 0) {
+                return x
+              } else {
+                return last(n - 1, x)
+              }
+            }
+            print(last(100000, 'a'))
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callATailRecursiveFunctionThatRedefinesAnOperator() {
+    assertEquals("3\n2\n0\n", execute("""
+            function loop(n) {
+              print(n)
+              if (n == 0) {
+                return 0
+              } else {
+                if (n == 2) {
+                  function -(a, b) {
+                    return 0
+                  }
+                } else {
+                }
+                return loop(n - 1)
+              }
+            }
+            loop(3)
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callATailRecursiveFunctionResetsTheLocalVariables() {
+    assertEquals("undefined\nundefined\nundefined\n", execute("""
+            function f(n) {
+              print(a)
+              if (n == 0) {
+                return 0
+              } else {
+                var a = n
+                return f(n - 1)
+              }
+            }
+            f(2)
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callSmallFunctions() {
+    assertEquals("4\n7\nundefined\n", execute("""
+            function inc(x) {
+              return x + 1
+            }
+            function max(a, b) {
+              if (a < b) {
+                var result = b
+              } else {
+                var result = a
+              }
+              return result
+            }
+            function nothing(x) {
+              x
+            }
+            print(inc(2) + 1)
+            print(inc(max(6, inc(1))))
+            print(nothing(3))
+            """));
+  }
+
+  @Tag("Q12") @Test
+  public void callASmallFunctionFromATailRecursiveFunction() {
+    assertEquals("100000\n", execute("""
+            function inc(x) {
+              return x + 1
+            }
+            function loop(n, acc) {
+              if (n == 0) {
+                return acc
+              } else {
+                return loop(n - 1, inc(acc))
+              }
+            }
+            print(loop(100000, 0))
+            """));
+  }
+
   @Tag("Q13") @Test
   public void createAnObject() {
     assertEquals("""
@@ -300,7 +631,6 @@ public class JVMInterpreterTests {
                 print(o);
                 """));
   }
-/*
   @Tag("Q14") @Test
   public void createAnObjectFromAVariableValue() {
     assertEquals("""
@@ -351,13 +681,13 @@ public class JVMInterpreterTests {
 
   @Tag("Q16") @Test
   public void objectSetAFieldValue() {
-//    assertEquals(
-//        "Jane\n",
-//        execute("""
-//                var john = { name: "John" };
-//                john.name = "Jane";
-//                print(john.name);
-//                """));
+    assertEquals(
+        "Jane\n",
+        execute("""
+                var john = { name: "John" };
+                john.name = "Jane";
+                print(john.name);
+                """));
     assertEquals(
             "",
             execute("""
@@ -414,5 +744,100 @@ public class JVMInterpreterTests {
                 print(fun(object2));
                 """));
   }
-  */
+  @Tag("Q17") @Test
+  public void objectGetAFieldOfObjectsWithDifferentLayouts() {
+    assertEquals(
+        "1\n2\n3\n4\n5\n6\nundefined\n",
+        execute("""
+                function get(o) {
+                  return o.x;
+                }
+                print(get({ x: 1 }));
+                print(get({ a: 0, x: 2 }));
+                print(get({ b: 0, x: 3 }));
+                print(get({ c: 0, x: 4 }));
+                print(get({ d: 0, x: 5 }));
+                print(get({ e: 0, x: 6 }));
+                print(get({ y: 0 }));
+                """));
+  }
+  @Tag("Q17") @Test
+  public void objectGetAndSetAFieldMissingFromTheLayout() {
+    assertEquals(
+        "undefined\n1\nundefined\n2\n",
+        execute("""
+                function get(o) {
+                  return o.x;
+                }
+                function set(o, v) {
+                  o.x = v;
+                }
+                var p = { y: 0 };
+                print(get(p));
+                set(p, 1);
+                print(get(p));
+                var q = { y: 0 };
+                print(get(q));
+                set(q, 2);
+                print(get(q));
+                """));
+  }
+  @Tag("Q17") @Test
+  public void objectGetAFieldOfAPrototypeLinksTheCallSite() throws Throwable {
+    var site = RT.bsm_get(MethodHandles.lookup(), "get", methodType(Object.class, Object.class), "x");
+    var proto = JSObject.newObject(null);
+    proto.register("x", 1);
+    var object = JSObject.newObject(proto);
+    var unlinked = site.getTarget();
+    assertEquals(1, site.dynamicInvoker().invoke((Object) object));
+    var linked = site.getTarget();
+    assertNotSame(unlinked, linked);
+    assertEquals(1, site.dynamicInvoker().invoke((Object) object));
+    assertSame(linked, site.getTarget());
+  }
+  @Tag("Q17") @Test
+  public void objectGetAFieldOfAString() {
+    assertThrows(Failure.class, () -> execute("""
+                var s = "hello";
+                print(s.length);
+                """));
+  }
+  @Tag("Q17") @Test
+  public void objectGetAndSetAFieldOfTheGlobalEnv() {
+    assertEquals(
+        "1\n2\n",
+        execute("""
+                function get(o) {
+                  return o.x;
+                }
+                function set(o, v) {
+                  o.x = v;
+                }
+                set(global, 1);
+                print(get(global));
+                set(global, 2);
+                print(x);
+                """));
+  }
+
+  @Test
+  public void memoizedPureFunction() {
+    System.setProperty("smalljs.memoize", "true");
+    MemoCache.resetStatistics();
+    try {
+      assertEquals("165580141\n", execute("""
+                function fibo(n) {
+                  if (n < 2) {
+                    return 1;
+                  } else {
+                    return fibo(n - 1) + fibo(n - 2);
+                  }
+                }
+                print(fibo(40));
+                """));
+      assertTrue(MemoCache.hits() > 0);
+    } finally {
+      System.clearProperty("smalljs.memoize");
+    }
+  }
 }
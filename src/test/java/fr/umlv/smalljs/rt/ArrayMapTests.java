@@ -0,0 +1,250 @@
+package fr.umlv.smalljs.rt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("static-method")
+public class ArrayMapTests {
+  @Test
+  public void putAndGet() {
+    var map = new ArrayMap();
+    assertNull(map.put("x", 1));
+    assertNull(map.put("y", 2));
+    assertEquals(1, map.put("x", 3));
+    assertEquals(3, map.get("x"));
+    assertEquals(2, map.get("y"));
+    assertNull(map.get("z"));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void putAndGetManyKeys() {
+    var map = new ArrayMap();
+    for (var i = 0; i < 60; i++) {
+      map.put("key" + i, i);
+    }
+    for (var i = 0; i < 60; i++) {
+      assertEquals(i, map.get("key" + i));
+      assertEquals(i, map.layout().slot("key" + i));
+    }
+    assertNull(map.get("key60"));
+    assertEquals(-1, map.layout().slot(42));
+    assertEquals(60, map.layout().size());
+  }
+
+  @Test
+  public void keysAreInInsertionOrder() {
+    var map = new ArrayMap();
+    var expected = new LinkedHashMap<String, Object>();
+    for (var i = 20; i > 0; i--) {
+      map.put("key" + i, i);
+      expected.put("key" + i, i);
+    }
+    assertEquals(List.copyOf(expected.entrySet()), List.copyOf(map.entrySet()));
+    var keys = new ArrayList<String>();
+    map.forEach((key, value) -> keys.add(key));
+    assertEquals(List.copyOf(expected.keySet()), keys);
+  }
+
+  @Test
+  public void layoutsArePrefixShared() {
+    var map1 = new ArrayMap();
+    var map2 = new ArrayMap();
+    for (var i = 0; i < 20; i++) {
+      map1.put("key" + i, i);
+      map2.put(new String("key" + i), -i);
+      assertSame(map1.layout(), map2.layout());
+    }
+    map1.put("foo", 0);
+    map2.put("bar", 0);
+    assertNotSame(map1.layout(), map2.layout());
+  }
+
+  @Test
+  public void layoutOfKeys() {
+    var keys = IntStream.range(0, 20).mapToObj(i -> "key" + i).toList();
+    var map = new ArrayMap();
+    keys.forEach(key -> map.put(key, key));
+    assertSame(map.layout(), ArrayMap.layout(keys));
+  }
+
+  @Test
+  public void createLayoutsConcurrently() throws InterruptedException, ExecutionException {
+    var threadCount = 16;
+    var keyCount = 64;
+    var start = new CountDownLatch(1);
+    var executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      var futures = new ArrayList<Future<List<ArrayMap.Layout>>>();
+      for (var t = 0; t < threadCount; t++) {
+        var seed = t;
+        futures.add(executor.submit(() -> {
+          start.await();
+          // all threads create the same shapes but in a different order
+          var random = new Random(seed);
+          var layouts = new ArrayList<ArrayMap.Layout>();
+          for (var i = 0; i < keyCount; i++) {
+            layouts.add(null);
+          }
+          for (var i : random.ints(0, keyCount).distinct().limit(keyCount).toArray()) {
+            var map = new ArrayMap();
+            for (var j = 0; j <= i; j++) {
+              map.put("key" + j, j);
+            }
+            for (var j = 0; j <= i; j++) {
+              assertEquals(j, map.get("key" + j));
+            }
+            layouts.set(i, map.layout());
+          }
+          return layouts;
+        }));
+      }
+      start.countDown();
+      var expected = futures.getFirst().get();
+      for (var future : futures) {
+        var layouts = future.get();
+        for (var i = 0; i < keyCount; i++) {
+          assertSame(expected.get(i), layouts.get(i));
+          assertEquals(i + 1, layouts.get(i).size());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void unusedLayoutsAreCollected() throws InterruptedException {
+    var prefix = "unused" + System.nanoTime() + "_";
+    var maps = new ArrayList<ArrayMap>();
+    for (var i = 0; i < 1_000; i++) {
+      var map = new ArrayMap();
+      map.put(prefix + i, i);
+      map.put("x", i);
+      maps.add(map);
+    }
+    var count = ArrayMap.liveLayoutCount();
+    assertTrue(count > 2_000);
+    assertTrue(ArrayMap.layoutTreeDepth() >= 2);
+    maps = null;
+    for (var i = 0; i < 100 && ArrayMap.liveLayoutCount() > count - 2_000; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertTrue(ArrayMap.liveLayoutCount() <= count - 2_000);
+  }
+
+  @Test
+  public void layoutsUsedByAMapAreNotCollected() {
+    var prefix = "used" + System.nanoTime() + "_";
+    var map = new ArrayMap();
+    map.put(prefix + 0, 0);
+    map.put(prefix + 1, 1);
+    var layout = map.layout();
+    System.gc();
+    var map2 = new ArrayMap();
+    map2.put(prefix + 0, 0);
+    map2.put(prefix + 1, 1);
+    assertSame(layout, map2.layout());
+  }
+
+  @Test
+  public void dictionaryMode() {
+    var map = new ArrayMap();
+    for (var i = 0; i < 64; i++) {
+      map.put("key" + i, i);
+    }
+    assertFalse(map.isDictionary());
+    var layout = map.layout();
+    map.put("key64", 64);
+    assertTrue(map.isDictionary());
+    assertEquals(-1, map.layout().slot("key0"));
+    assertNotSame(layout, map.layout());
+    for (var i = 0; i < 1_000; i++) {
+      map.put("key" + i, i);
+    }
+    map.put("key0", -1);
+    assertEquals(1_000, map.size());
+    assertEquals(-1, map.get("key0"));
+    assertEquals(999, map.get("key999"));
+    assertNull(map.get("key1000"));
+    assertTrue(map.containsKey("key500"));
+    var keys = new ArrayList<String>();
+    map.forEach((key, _) -> keys.add(key));
+    assertEquals(IntStream.range(0, 1_000).mapToObj(i -> "key" + i).toList(), keys);
+  }
+
+  @Test
+  public void layoutOfManyKeysIsNotInTheTransitionTree() {
+    var keys = IntStream.range(0, 100).mapToObj(i -> "many" + i).toList();
+    var layout = ArrayMap.layout(keys);
+    assertEquals(100, layout.size());
+    assertEquals(99, layout.slot("many99"));
+    assertTrue(ArrayMap.layoutTreeDepth() <= 64);
+    var map = new ArrayMap(layout, keys.toArray());
+    assertTrue(map.isDictionary());
+    assertEquals("many42", map.get("many42"));
+    var duplicates = new ArrayList<>(keys);
+    duplicates.add("many0");
+    assertThrows(IllegalArgumentException.class, () -> ArrayMap.layout(duplicates));
+  }
+
+  @Test
+  public void mapADictionary() {
+    var map = new ArrayMap();
+    for (var i = 0; i < 100; i++) {
+      map.put("key" + i, i);
+    }
+    var map2 = map.map(value -> (Integer) value + 1);
+    assertTrue(map2.isDictionary());
+    assertEquals(100, map2.get("key99"));
+    assertEquals(100, map2.size());
+  }
+
+  @Test
+  public void dictionaryWithCollidingKeys() {
+    // "Aa" and "BB" have the same hash code
+    var map = ArrayMap.newDictionary();
+    map.put("Aa", 1);
+    map.put("BB", 2);
+    map.put("AaAa", 3);
+    map.put("BBBB", 4);
+    map.put("AaBB", 5);
+    assertEquals(1, map.get("Aa"));
+    assertEquals(2, map.get("BB"));
+    assertEquals(5, map.get("AaBB"));
+    assertNull(map.get("BBAa"));
+    assertEquals(2, map.put("BB", 20));
+    assertEquals(20, map.get("BB"));
+    assertEquals(5, map.size());
+    assertEquals(List.of("Aa", "BB", "AaAa", "BBBB", "AaBB"), map.entrySet().stream().map(Map.Entry::getKey).toList());
+  }
+
+  @Test
+  public void newDictionaryIsInDictionaryMode() {
+    var map = ArrayMap.newDictionary();
+    assertTrue(map.isDictionary());
+    assertEquals(0, map.size());
+    map.put("x", 1);
+    assertEquals(-1, map.layout().slot("x"));
+    assertEquals(1, map.get("x"));
+  }
+}
@@ -0,0 +1,163 @@
+package fr.umlv.smalljs.rt;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static java.lang.invoke.MethodType.methodType;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("static-method")
+public class JSObjectTests {
+  private static Object sum(Object receiver, Object a, Object b, Object c) {
+    return (Integer) a + (Integer) b + (Integer) c;
+  }
+
+  private static MethodHandle sum() {
+    try {
+      return MethodHandles.lookup().findStatic(JSObjectTests.class, "sum",
+          methodType(Object.class, Object.class, Object.class, Object.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Test
+  public void invokeAMethodHandle() {
+    var function = JSObject.newFunction("sum", sum());
+    assertEquals(6, function.invoke3(UNDEFINED, 1, 2, 3));
+    assertEquals(6, function.invoke(UNDEFINED, 1, 2, 3));
+    assertEquals(60, function.invoke(UNDEFINED, 10, 20, 30));
+  }
+
+  @Test
+  public void invokeAMethodHandleWithTheWrongNumberOfArguments() {
+    var function = JSObject.newFunction("sum", sum());
+    assertThrows(Failure.class, () -> function.invoke2(UNDEFINED, 1, 2));
+    assertThrows(Failure.class, () -> function.invoke(UNDEFINED, 1, 2, 3, 4));
+    assertThrows(Failure.class, () -> function.invoke(UNDEFINED, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+  }
+
+  @Test
+  public void invokeAnInvoker() {
+    var function = JSObject.newFunction("list", (receiver, args) -> List.of(receiver, List.of(args)));
+    assertEquals(List.of(UNDEFINED, List.of()), function.invoke0(UNDEFINED));
+    assertEquals(List.of(UNDEFINED, List.of(1)), function.invoke1(UNDEFINED, 1));
+    assertEquals(List.of(UNDEFINED, List.of(1, 2)), function.invoke2(UNDEFINED, 1, 2));
+    assertEquals(List.of(UNDEFINED, List.of(1, 2, 3)), function.invoke3(UNDEFINED, 1, 2, 3));
+    assertEquals(List.of(UNDEFINED, List.of(1, 2, 3, 4)), function.invoke4(UNDEFINED, 1, 2, 3, 4));
+    assertEquals(List.of(UNDEFINED, List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)),
+        function.invoke(UNDEFINED, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+  }
+
+  @Test
+  public void invokeAnInvokerDoesNotCopyTheArguments() {
+    var function = JSObject.newFunction("identity", (_, args) -> args);
+    var args = new Object[] { 1, 2 };
+    assertSame(args, function.invoke(UNDEFINED, args));
+  }
+
+  @Test
+  public void invokeAnInvokerWithAFixedArity() {
+    var function = JSObject.newFunction("first", new JSObject.Invoker() {
+      @Override
+      public Object invoke(Object receiver, Object... args) {
+        return List.of(args);
+      }
+      @Override
+      public Object invoke1(Object receiver, Object arg0) {
+        return arg0;
+      }
+      @Override
+      public Object invoke4(Object receiver, Object arg0, Object arg1, Object arg2, Object arg3) {
+        return arg0;
+      }
+    });
+    assertEquals(42, function.invoke1(UNDEFINED, 42));
+    assertEquals(List.of(42), function.invoke(UNDEFINED, 42));
+    assertEquals(List.of(1, 2), function.invoke2(UNDEFINED, 1, 2));
+    assertEquals(1, function.invoke4(UNDEFINED, 1, 2, 3, 4));
+  }
+
+  @Test
+  public void invokeAnInvokerPropagatesTheFailure() {
+    var function = JSObject.newFunction("fail", (_, _) -> { throw new Failure("oops"); });
+    assertEquals("oops", assertThrows(Failure.class, () -> function.invoke1(UNDEFINED, 1)).getMessage());
+  }
+
+  @Test
+  public void newObjectWithALayout() {
+    var object = JSObject.newObject(null, ArrayMap.layout(List.of("x", "y")), new Object[] { 1, 2 });
+    assertEquals(1, object.lookup("x"));
+    assertEquals(2, object.lookup("y"));
+    assertEquals(UNDEFINED, object.lookup("z"));
+    assertEquals(2, object.length());
+  }
+
+  @Test
+  public void newObjectWithALayoutHasTheSameLayoutAsRegister() {
+    var object = JSObject.newObject(null);
+    object.register("x", 1);
+    object.register("y", 2);
+    var object2 = JSObject.newObject(null, ArrayMap.layout(List.of("x", "y")), new Object[] { 3, 4 });
+    assertSame(object.getLayout(), object2.getLayout());
+  }
+
+  @Test
+  public void newObjectWithALayoutAndTheWrongNumberOfValues() {
+    var layout = ArrayMap.layout(List.of("x", "y"));
+    assertThrows(IllegalArgumentException.class, () -> JSObject.newObject(null, layout, new Object[] { 1 }));
+    assertThrows(IllegalArgumentException.class, () -> ArrayMap.layout(List.of("x", "x")));
+  }
+
+  @Test
+  public void newObjectWithALayoutCanBeExtended() {
+    var object = JSObject.newObject(null, ArrayMap.layout(List.of("x")), new Object[] { 1 });
+    object.register("y", 2);
+    object.register("x", 3);
+    assertEquals(3, object.lookup("x"));
+    assertEquals(2, object.lookup("y"));
+    assertSame(ArrayMap.layout(List.of("x", "y")), object.getLayout());
+  }
+
+  @Test
+  public void newObjectWithManyFieldsIsADictionary() {
+    var keys = IntStream.range(0, 65).mapToObj(i -> "key" + i).toList();
+    var object = JSObject.newObject(null, ArrayMap.layout(keys), IntStream.range(0, 65).boxed().toArray());
+    assertTrue(object.isDictionary());
+    assertEquals(0, object.lookup("key0"));
+    assertEquals(64, object.lookup("key64"));
+    assertEquals(65, object.length());
+    var object2 = JSObject.newObject(null);
+    keys.forEach(key -> object2.register(key, 0));
+    assertTrue(object2.isDictionary());
+    assertSame(object.getLayout(), object2.getLayout());
+    assertFalse(JSObject.newObject(null, ArrayMap.layout(keys.subList(0, 64)), IntStream.range(0, 64).boxed().toArray()).isDictionary());
+  }
+
+  @Test
+  public void mirror() {
+    var object = JSObject.newObject(null, ArrayMap.layout(List.of("x", "y")), new Object[] { 1, 2 });
+    var mirror = object.mirror(value -> (Integer) value * 10);
+    assertEquals(10, mirror.lookup("x"));
+    assertEquals(20, mirror.lookup("y"));
+    assertSame(object.getLayout(), mirror.getLayout());
+  }
+
+  @Test
+  public void globalEnvIsADictionary() {
+    var env = JSObject.newGlobalEnv();
+    assertTrue(env.isDictionary());
+    env.register("x", 1);
+    assertEquals(1, env.lookup("x"));
+    assertFalse(JSObject.newEnv(null).isDictionary());
+  }
+}
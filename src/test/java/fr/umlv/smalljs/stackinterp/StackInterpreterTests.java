@@ -1,6 +1,7 @@
 package fr.umlv.smalljs.stackinterp;
 
 import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
@@ -8,12 +9,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
 
 import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("static-method")
 public class StackInterpreterTests {
@@ -413,4 +417,25 @@ public class StackInterpreterTests {
                 print(f());
                 """);
   }
+
+  @Test
+  public void functionIsCompiledOnFirstCall() {
+    var script = createScript(new StringReader("""
+                function called(a) {
+                  return a;
+                }
+                function notCalled(a) {
+                  return a;
+                }
+                print(called(3));
+                """));
+    var outStream = new ByteArrayOutputStream(8192);
+    var globalEnv = StackInterpreter.createGlobalEnv(new PrintStream(outStream, false, UTF_8));
+    var dict = new Dictionary();
+    var main = InstrRewriter.createFunction(Optional.of("main"), List.of(), script.body(), dict);
+    StackInterpreter.execute(main, dict, globalEnv);
+    assertEquals("3\n", outStream.toString(UTF_8).replace("\r\n", "\n"));
+    assertTrue(((JSObject) globalEnv.lookup("called")).lookup("__code__") instanceof Code);
+    assertFalse(((JSObject) globalEnv.lookup("notCalled")).lookup("__code__") instanceof Code);
+  }
 }